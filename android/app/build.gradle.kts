@@ -32,6 +32,13 @@ android {
         versionName = "1.0"
     }
 
+    // Native batched tunnel I/O (libfalcon_io); the VPN falls back to Java I/O where it is missing
+    externalNativeBuild {
+        cmake {
+            path = file("src/main/cpp/CMakeLists.txt")
+        }
+    }
+
     buildTypes {
         release {
             // TODO: Add your own signing config for the release build.
@@ -60,6 +67,8 @@ android {
 // Add dependencies for core library desugaring
 dependencies {
     coreLibraryDesugaring("com.android.tools:desugar_jdk_libs:1.2.2")
+
+    testImplementation("junit:junit:4.13.2")
 }
 
 flutter {
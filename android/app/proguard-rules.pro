@@ -30,4 +30,4 @@
 -keep class androidx.lifecycle.DefaultLifecycleObserver { *; }
 
 # Keep our VPN service classes
--keep class com.falcon.securechat.vpn.** { *; }
\ No newline at end of file
+-keep class com.falcon.securechat.vpn.** { *; }
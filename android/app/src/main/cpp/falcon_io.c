@@ -0,0 +1,197 @@
+/*
+ * Batched tunnel I/O for com.falcon.securechat.vpn.io.NativeTunnelIo
+ *
+ * Every call moves as many packets as are ready without blocking and reports
+ * the number of syscalls made through result[0]. A hard failure returns -1
+ * with errno in result[1]; EAGAIN just ends the burst.
+ */
+#define _GNU_SOURCE
+#include <errno.h>
+#include <jni.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <sys/uio.h>
+#include <unistd.h>
+
+#define MAX_BATCH 64
+
+static void report(JNIEnv *env, jintArray result, jint syscalls, jint error) {
+    jint values[2] = { syscalls, error };
+    (*env)->SetIntArrayRegion(env, result, 0, 2, values);
+}
+
+static int resolve(JNIEnv *env, jobject data, jobject lengths, jint slot_size, jint count,
+                   unsigned char **base, jint **sizes) {
+    *base = (unsigned char *) (*env)->GetDirectBufferAddress(env, data);
+    *sizes = (jint *) (*env)->GetDirectBufferAddress(env, lengths);
+    if (*base == NULL || *sizes == NULL || slot_size <= 0 || count < 0) {
+        return -1;
+    }
+    if ((*env)->GetDirectBufferCapacity(env, data) < (jlong) slot_size * count
+            || (*env)->GetDirectBufferCapacity(env, lengths) < (jlong) sizeof(jint) * count) {
+        return -1;
+    }
+    return 0;
+}
+
+static int would_block(int error) {
+    return error == EAGAIN || error == EWOULDBLOCK;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_falcon_securechat_vpn_io_NativeTunnelIo_nativeReadTun(JNIEnv *env, jclass clazz, jint fd,
+        jobject data, jobject lengths, jint slot_size, jint max_count, jintArray result) {
+    unsigned char *base;
+    jint *sizes;
+    if (resolve(env, data, lengths, slot_size, max_count, &base, &sizes) != 0) {
+        report(env, result, 0, EINVAL);
+        return -1;
+    }
+
+    jint count = 0;
+    jint syscalls = 0;
+    while (count < max_count) {
+        ssize_t n;
+        do {
+            syscalls++;
+            n = read(fd, base + (size_t) count * slot_size, (size_t) slot_size);
+        } while (n < 0 && errno == EINTR);
+        if (n <= 0) {
+            if (n < 0 && !would_block(errno) && count == 0) {
+                report(env, result, syscalls, errno);
+                return -1;
+            }
+            break;
+        }
+        sizes[count++] = (jint) n;
+    }
+    report(env, result, syscalls, 0);
+    return count;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_falcon_securechat_vpn_io_NativeTunnelIo_nativeWriteTun(JNIEnv *env, jclass clazz, jint fd,
+        jobject data, jobject lengths, jint slot_size, jint count, jintArray result) {
+    unsigned char *base;
+    jint *sizes;
+    if (resolve(env, data, lengths, slot_size, count, &base, &sizes) != 0) {
+        report(env, result, 0, EINVAL);
+        return -1;
+    }
+
+    jint written = 0;
+    jint syscalls = 0;
+    for (jint i = 0; i < count; i++) {
+        if (sizes[i] < 0 || sizes[i] > slot_size) {
+            continue;
+        }
+        ssize_t n;
+        do {
+            syscalls++;
+            n = write(fd, base + (size_t) i * slot_size, (size_t) sizes[i]);
+        } while (n < 0 && errno == EINTR);
+        if (n < 0) {
+            if (!would_block(errno)) {
+                report(env, result, syscalls, errno);
+                return -1;
+            }
+            // Tun queue full: drop the rest of the burst like a congested link would
+            break;
+        }
+        written++;
+    }
+    report(env, result, syscalls, 0);
+    return written;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_falcon_securechat_vpn_io_NativeTunnelIo_nativeSend(JNIEnv *env, jclass clazz, jint fd,
+        jobject data, jobject lengths, jint slot_size, jint count, jintArray result) {
+    unsigned char *base;
+    jint *sizes;
+    if (resolve(env, data, lengths, slot_size, count, &base, &sizes) != 0) {
+        report(env, result, 0, EINVAL);
+        return -1;
+    }
+
+    struct iovec iov[MAX_BATCH];
+    struct mmsghdr messages[MAX_BATCH];
+    jint sent = 0;
+    jint syscalls = 0;
+
+    while (sent < count) {
+        int batch = count - sent < MAX_BATCH ? count - sent : MAX_BATCH;
+        memset(messages, 0, sizeof(struct mmsghdr) * (size_t) batch);
+        for (int i = 0; i < batch; i++) {
+            jint slot = sent + i;
+            iov[i].iov_base = base + (size_t) slot * slot_size;
+            iov[i].iov_len = (size_t) (sizes[slot] > slot_size ? slot_size : sizes[slot]);
+            // Connected socket: no destination address per message
+            messages[i].msg_hdr.msg_iov = &iov[i];
+            messages[i].msg_hdr.msg_iovlen = 1;
+        }
+
+        int n;
+        do {
+            syscalls++;
+            n = sendmmsg(fd, messages, (unsigned int) batch, MSG_DONTWAIT);
+        } while (n < 0 && errno == EINTR);
+        if (n < 0) {
+            if (!would_block(errno) && sent == 0) {
+                report(env, result, syscalls, errno);
+                return -1;
+            }
+            break;
+        }
+        sent += n;
+        if (n < batch) {
+            break;
+        }
+    }
+    report(env, result, syscalls, 0);
+    return sent;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_falcon_securechat_vpn_io_NativeTunnelIo_nativeReceive(JNIEnv *env, jclass clazz, jint fd,
+        jobject data, jobject lengths, jint slot_size, jint max_count, jintArray result) {
+    unsigned char *base;
+    jint *sizes;
+    if (resolve(env, data, lengths, slot_size, max_count, &base, &sizes) != 0) {
+        report(env, result, 0, EINVAL);
+        return -1;
+    }
+
+    struct iovec iov[MAX_BATCH];
+    struct mmsghdr messages[MAX_BATCH];
+    int batch = max_count < MAX_BATCH ? max_count : MAX_BATCH;
+    memset(messages, 0, sizeof(struct mmsghdr) * (size_t) batch);
+    for (int i = 0; i < batch; i++) {
+        iov[i].iov_base = base + (size_t) i * slot_size;
+        iov[i].iov_len = (size_t) slot_size;
+        messages[i].msg_hdr.msg_iov = &iov[i];
+        messages[i].msg_hdr.msg_iovlen = 1;
+    }
+
+    int n;
+    jint syscalls = 0;
+    do {
+        syscalls++;
+        n = recvmmsg(fd, messages, (unsigned int) batch, MSG_DONTWAIT, NULL);
+    } while (n < 0 && errno == EINTR);
+    if (n < 0) {
+        if (would_block(errno)) {
+            report(env, result, syscalls, 0);
+            return 0;
+        }
+        report(env, result, syscalls, errno);
+        return -1;
+    }
+
+    for (int i = 0; i < n; i++) {
+        // Oversized datagrams arrive truncated; authentication rejects them later
+        sizes[i] = (jint) messages[i].msg_len;
+    }
+    report(env, result, syscalls, 0);
+    return n;
+}
@@ -7,6 +7,9 @@ import androidx.annotation.NonNull;
 
 import com.falcon.securechat.vpn.VpnManager;
 import com.falcon.securechat.ScreenshotProtectionPlugin;
+import com.falcon.securechat.crypto.FileCryptoPlugin;
+import com.falcon.securechat.crypto.MessageCryptoPlugin;
+import com.falcon.securechat.search.MessageSearchPlugin;
 
 public class MainActivity extends FlutterActivity {
     
@@ -19,6 +22,15 @@ public class MainActivity extends FlutterActivity {
         
         // Register Screenshot Protection plugin
         flutterEngine.getPlugins().add(new ScreenshotProtectionPlugin());
+        
+        // Register batch message crypto plugin
+        flutterEngine.getPlugins().add(new MessageCryptoPlugin());
+        
+        // Register streaming file crypto plugin
+        flutterEngine.getPlugins().add(new FileCryptoPlugin());
+        
+        // Register message full-text search plugin
+        flutterEngine.getPlugins().add(new MessageSearchPlugin());
     }
     
     @Override
@@ -1,6 +1,8 @@
 package com.falcon.securechat;
 
 import android.app.Activity;
+import android.view.Choreographer;
+import android.view.Window;
 import android.view.WindowManager;
 import androidx.annotation.NonNull;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
@@ -11,10 +13,43 @@ import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FLAG_SECURE as reference-counted holders: the window stays secure while
+ * any screen or app-wide setting holds protection.
+ *
+ * Requests only adjust the counts; one Choreographer callback per frame
+ * applies the net result, so a route transition that releases and
+ * re-acquires protection costs no window relayout. Calls are answered once
+ * their frame has been applied. Everything runs on the main thread.
+ */
 public class ScreenshotProtectionPlugin implements FlutterPlugin, MethodCallHandler, ActivityAware {
+    // App-wide settings are holders too, so a screen releasing its hold cannot clear them
+    private static final String HOLDER_SCREENSHOT = "app.screenshot";
+    private static final String HOLDER_RECORDING = "app.recording";
+
     private MethodChannel channel;
     private Activity activity;
 
+    private final Map<String, Integer> holders = new HashMap<>();
+    // Flag state of the current window, null when unknown (new window)
+    private Boolean appliedSecure;
+    private boolean frameScheduled;
+    private final List<Result> pendingResults = new ArrayList<>();
+    private final Choreographer.FrameCallback applyCallback = this::applyFrame;
+
+    // Counters for the debug panel
+    private long requests;
+    private long windowUpdates;
+    // Requests merged into a frame that was already scheduled
+    private long coalescedRequests;
+    // Frames whose net state already matched the window, so no update was made
+    private long redundantFrames;
+
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
         channel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), "falcon/screenshot_protection");
@@ -23,23 +58,49 @@ public class ScreenshotProtectionPlugin implements FlutterPlugin, MethodCallHand
 
     @Override
     public void onMethodCall(@NonNull MethodCall call, @NonNull Result result) {
+        if ("getProtectionStats".equals(call.method)) {
+            result.success(stats());
+            return;
+        }
         if (activity == null) {
             result.error("NO_ACTIVITY", "No activity available", null);
             return;
         }
 
         switch (call.method) {
+            case "acquire":
+            case "release": {
+                String token = call.argument("token");
+                if (token == null || token.startsWith("app.")) {
+                    result.error("INVALID_TOKEN", "A screen token is required", null);
+                    return;
+                }
+                if ("acquire".equals(call.method)) {
+                    Integer count = holders.get(token);
+                    holders.put(token, count == null ? 1 : count + 1);
+                } else {
+                    Integer count = holders.get(token);
+                    if (count == null || count <= 1) {
+                        holders.remove(token);
+                    } else {
+                        holders.put(token, count - 1);
+                    }
+                }
+                requestApply(result);
+                break;
+            }
             case "enableScreenshotProtection":
-                enableScreenshotProtection(result);
+                setHolder(HOLDER_SCREENSHOT, true, result);
                 break;
             case "disableScreenshotProtection":
-                disableScreenshotProtection(result);
+                setHolder(HOLDER_SCREENSHOT, false, result);
                 break;
             case "enableScreenRecordingProtection":
-                enableScreenRecordingProtection(result);
+                // On Android, FLAG_SECURE also prevents screen recording
+                setHolder(HOLDER_RECORDING, true, result);
                 break;
             case "disableScreenRecordingProtection":
-                disableScreenRecordingProtection(result);
+                setHolder(HOLDER_RECORDING, false, result);
                 break;
             default:
                 result.notImplemented();
@@ -47,39 +108,96 @@ public class ScreenshotProtectionPlugin implements FlutterPlugin, MethodCallHand
         }
     }
 
-    private void enableScreenshotProtection(Result result) {
-        try {
-            activity.runOnUiThread(() -> {
-                activity.getWindow().setFlags(
-                    WindowManager.LayoutParams.FLAG_SECURE,
-                    WindowManager.LayoutParams.FLAG_SECURE
-                );
-            });
-            result.success(true);
-        } catch (Exception e) {
-            result.error("SCREENSHOT_PROTECTION_ERROR", "Failed to enable screenshot protection", e);
+    /**
+     * App-wide settings are on/off rather than counted
+     */
+    private void setHolder(String holder, boolean held, Result result) {
+        if (held) {
+            holders.put(holder, 1);
+        } else {
+            holders.remove(holder);
         }
+        requestApply(result);
     }
 
-    private void disableScreenshotProtection(Result result) {
-        try {
-            activity.runOnUiThread(() -> {
-                activity.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_SECURE);
-            });
-            result.success(true);
-        } catch (Exception e) {
-            result.error("SCREENSHOT_PROTECTION_ERROR", "Failed to disable screenshot protection", e);
+    private void requestApply(Result result) {
+        requests++;
+        pendingResults.add(result);
+        if (frameScheduled) {
+            coalescedRequests++;
         }
+        scheduleFrame();
     }
 
-    private void enableScreenRecordingProtection(Result result) {
-        // On Android, FLAG_SECURE also prevents screen recording
-        enableScreenshotProtection(result);
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(applyCallback);
+        }
     }
 
-    private void disableScreenRecordingProtection(Result result) {
-        // On Android, FLAG_SECURE also prevents screen recording
-        disableScreenshotProtection(result);
+    private void applyFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        if (activity == null) {
+            // Detached for a configuration change; reattaching schedules a new frame
+            return;
+        }
+
+        boolean secure = !holders.isEmpty();
+        boolean success = true;
+        if (appliedSecure != null && appliedSecure == secure) {
+            redundantFrames++;
+        } else {
+            try {
+                Window window = activity.getWindow();
+                if (secure) {
+                    window.setFlags(WindowManager.LayoutParams.FLAG_SECURE, WindowManager.LayoutParams.FLAG_SECURE);
+                } else {
+                    window.clearFlags(WindowManager.LayoutParams.FLAG_SECURE);
+                }
+                appliedSecure = secure;
+                windowUpdates++;
+            } catch (Exception e) {
+                success = false;
+                failPending("SCREENSHOT_PROTECTION_ERROR", "Failed to update screenshot protection: " + e.getMessage());
+            }
+        }
+
+        if (success) {
+            List<Result> results = new ArrayList<>(pendingResults);
+            pendingResults.clear();
+            for (Result result : results) {
+                result.success(secure);
+            }
+        }
+    }
+
+    private void failPending(String code, String message) {
+        List<Result> results = new ArrayList<>(pendingResults);
+        pendingResults.clear();
+        for (Result result : results) {
+            result.error(code, message, null);
+        }
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("secure", appliedSecure != null && appliedSecure);
+        map.put("holders", holders.size());
+        map.put("requests", requests);
+        map.put("windowUpdates", windowUpdates);
+        map.put("coalescedRequests", coalescedRequests);
+        map.put("redundantFrames", redundantFrames);
+        return map;
+    }
+
+    private void attach(Activity next) {
+        this.activity = next;
+        // A new window does not carry the old one's flags
+        appliedSecure = null;
+        if (!holders.isEmpty() || !pendingResults.isEmpty()) {
+            scheduleFrame();
+        }
     }
 
     @Override
@@ -89,7 +207,7 @@ public class ScreenshotProtectionPlugin implements FlutterPlugin, MethodCallHand
 
     @Override
     public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
-        this.activity = binding.getActivity();
+        attach(binding.getActivity());
     }
 
     @Override
@@ -99,11 +217,12 @@ public class ScreenshotProtectionPlugin implements FlutterPlugin, MethodCallHand
 
     @Override
     public void onReattachedToActivityForConfigChanges(@NonNull ActivityPluginBinding binding) {
-        this.activity = binding.getActivity();
+        attach(binding.getActivity());
     }
 
     @Override
     public void onDetachedFromActivity() {
         this.activity = null;
+        failPending("NO_ACTIVITY", "Activity detached before protection was applied");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,542 @@
+package com.falcon.securechat.crypto;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
+import io.flutter.plugin.common.MethodChannel.Result;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Streaming file encryption plugin for Flutter integration
+ * Files are sealed in independently authenticated AES-256-GCM chunks so that
+ * several cores can work on one file, memory stays constant regardless of file
+ * size, and an interrupted job can resume from a chunk index.
+ *
+ * Layout: header (magic, version, chunk size, base nonce, plaintext length,
+ * source tag), then each chunk as ciphertext || tag at a fixed offset. Chunk i
+ * uses nonce baseNonce || i and the header as AAD, which binds order and total
+ * length. The source tag is a keyed MAC over the input's mtime and first chunk;
+ * a resume only reuses the base nonce when the input still matches it.
+ */
+public class FileCryptoPlugin implements FlutterPlugin, MethodCallHandler, EventChannel.StreamHandler {
+
+    private static final String TAG = "FileCryptoPlugin";
+    private static final String CHANNEL = "falcon/file_crypto";
+    private static final String PROGRESS_CHANNEL = "falcon/file_crypto/progress";
+
+    private static final int MAGIC = 0x46434631; // "FCF1"
+    private static final byte VERSION = 1;
+    private static final int SOURCE_TAG_OFFSET = 4 + 1 + 4 + 8 + 8;
+    private static final int SOURCE_TAG_SIZE = 16;
+    private static final int HEADER_SIZE = SOURCE_TAG_OFFSET + SOURCE_TAG_SIZE;
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    private static final int MIN_CHUNK_SIZE = 4 * 1024;
+    private static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    // Chunk indexes fill the low four bytes of the nonce
+    private static final long MAX_CHUNKS = 1L << 32;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_SIZE = TAG_BITS / 8;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private MethodChannel channel;
+    private EventChannel progressChannel;
+    private EventChannel.EventSink progressSink;
+    private ExecutorService executorService;
+    private int workers;
+
+    @Override
+    public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
+        channel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), CHANNEL);
+        channel.setMethodCallHandler(this);
+        progressChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), PROGRESS_CHANNEL);
+        progressChannel.setStreamHandler(this);
+        workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        executorService = Executors.newFixedThreadPool(workers);
+        Log.d(TAG, "FileCryptoPlugin attached to engine");
+    }
+
+    @Override
+    public void onMethodCall(@NonNull MethodCall call, @NonNull Result result) {
+        switch (call.method) {
+            case "encryptFile":
+                startJob(call, result, true);
+                break;
+            case "decryptFile":
+                startJob(call, result, false);
+                break;
+            case "cancel":
+                cancelJob(call, result);
+                break;
+            default:
+                result.notImplemented();
+                break;
+        }
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        progressSink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        progressSink = null;
+    }
+
+    /**
+     * Validate arguments, open both files and fan the chunks out over the pool
+     */
+    private void startJob(MethodCall call, Result result, boolean encrypt) {
+        String jobId = call.argument("jobId");
+        String inputPath = call.argument("inputPath");
+        String outputPath = call.argument("outputPath");
+        byte[] key = call.argument("key");
+        Number resumeArg = call.argument("resumeFromChunk");
+        Number chunkArg = call.argument("chunkSize");
+        long resumeFromChunk = resumeArg != null ? resumeArg.longValue() : 0;
+        int chunkSize = chunkArg != null
+            ? Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkArg.intValue()))
+            : DEFAULT_CHUNK_SIZE;
+
+        if (jobId == null || inputPath == null || outputPath == null || key == null
+                || key.length != 32 || resumeFromChunk < 0) {
+            // A 16-byte key would silently select AES-128
+            result.error("INVALID_ARGUMENTS", "jobId, inputPath, outputPath and a 256-bit key are required", null);
+            return;
+        }
+        if (jobs.containsKey(jobId)) {
+            result.error("JOB_EXISTS", "A job with this id is already running", null);
+            return;
+        }
+
+        Job job;
+        try {
+            job = encrypt
+                ? openEncryptJob(jobId, inputPath, outputPath, key, chunkSize, resumeFromChunk)
+                : openDecryptJob(jobId, inputPath, outputPath, key, resumeFromChunk);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Failed to open file crypto job " + jobId, e);
+            result.error("FILE_CRYPTO_ERROR", e.getMessage(), null);
+            return;
+        }
+
+        job.result = result;
+        jobs.put(jobId, job);
+        Log.i(TAG, (encrypt ? "Encrypting " : "Decrypting ") + job.totalChunks + " chunks from chunk "
+                + job.firstChunk + " for job " + jobId);
+
+        int taskCount = (int) Math.max(1, Math.min(workers, job.totalChunks - job.firstChunk));
+        job.workersLeft.set(taskCount);
+        job.inFlight = new AtomicLongArray(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            job.inFlight.set(i, Long.MAX_VALUE);
+        }
+        for (int i = 0; i < taskCount; i++) {
+            final int worker = i;
+            executorService.execute(() -> runWorker(job, worker));
+        }
+    }
+
+    private Job openEncryptJob(String jobId, String inputPath, String outputPath, byte[] key,
+                               int chunkSize, long resumeFromChunk) throws IOException {
+        FileChannel input = new RandomAccessFile(inputPath, "r").getChannel();
+        FileChannel output = null;
+        try {
+            long plainLength = input.size();
+            byte[] sourceTag = sourceTag(input, new File(inputPath).lastModified(), key, chunkSize, plainLength);
+            output = new RandomAccessFile(outputPath, "rw").getChannel();
+
+            byte[] header = null;
+            if (resumeFromChunk > 0) {
+                header = resumableHeader(output, chunkSize, plainLength, sourceTag);
+                if (header == null) {
+                    // Resealing chunks of a changed input under the old base nonce would reuse GCM nonces
+                    Log.w(TAG, "Input changed or output unverifiable, restarting job " + jobId + " from chunk 0");
+                    resumeFromChunk = 0;
+                }
+            }
+            if (header == null) {
+                byte[] baseNonce = new byte[8];
+                secureRandom.nextBytes(baseNonce);
+                ByteBuffer fresh = ByteBuffer.allocate(HEADER_SIZE);
+                fresh.putInt(MAGIC).put(VERSION).putInt(chunkSize).put(baseNonce).putLong(plainLength).put(sourceTag);
+                fresh.flip();
+                output.truncate(0);
+                writeFully(output, fresh.duplicate(), 0);
+                header = fresh.array();
+            }
+
+            Job job = new Job(jobId, true, input, output, key, header, chunkSize, plainLength, resumeFromChunk);
+            output.truncate(header.length + job.totalChunks * (long) (chunkSize + TAG_SIZE));
+            return job;
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(input);
+            closeQuietly(output);
+            throw e;
+        }
+    }
+
+    /**
+     * The existing output header when it was written for this exact input, so
+     * resumed chunks can share its base nonce; null otherwise
+     */
+    private static byte[] resumableHeader(FileChannel output, int chunkSize, long plainLength,
+                                          byte[] sourceTag) {
+        byte[] header;
+        Header parsed;
+        try {
+            header = readHeader(output);
+            parsed = Header.parse(ByteBuffer.wrap(header));
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+        if (parsed.chunkSize != chunkSize || parsed.plainLength != plainLength) {
+            return null;
+        }
+        byte[] existingTag = Arrays.copyOfRange(header, SOURCE_TAG_OFFSET, HEADER_SIZE);
+        return MessageDigest.isEqual(existingTag, sourceTag) ? header : null;
+    }
+
+    /**
+     * Keyed MAC over the input's modification time and first chunk; keyed so the
+     * header reveals nothing about the plaintext to holders of the ciphertext
+     */
+    private static byte[] sourceTag(FileChannel input, long lastModified, byte[] key, int chunkSize,
+                                    long plainLength) throws IOException {
+        ByteBuffer first = ByteBuffer.allocate((int) Math.min(chunkSize, plainLength));
+        readFully(input, first, 0);
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            mac.update(ByteBuffer.allocate(8).putLong(0, lastModified));
+            mac.update(first.array());
+            return Arrays.copyOf(mac.doFinal(), SOURCE_TAG_SIZE);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("HMAC-SHA256 unavailable", e);
+        }
+    }
+
+    private Job openDecryptJob(String jobId, String inputPath, String outputPath, byte[] key,
+                               long resumeFromChunk) throws IOException {
+        FileChannel input = new RandomAccessFile(inputPath, "r").getChannel();
+        FileChannel output = null;
+        try {
+            byte[] header = readHeader(input);
+            Header parsed = Header.parse(ByteBuffer.wrap(header));
+
+            output = new RandomAccessFile(outputPath, "rw").getChannel();
+            if (resumeFromChunk == 0) {
+                output.truncate(0);
+            }
+            return new Job(jobId, false, input, output, key, header, parsed.chunkSize,
+                    parsed.plainLength, resumeFromChunk);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(input);
+            closeQuietly(output);
+            throw e;
+        }
+    }
+
+    /**
+     * Pull chunk indexes until the job is exhausted; buffers are per worker so
+     * memory use is independent of file size
+     */
+    private void runWorker(Job job, int worker) {
+        ByteBuffer in = ByteBuffer.allocateDirect(job.chunkSize + TAG_SIZE);
+        ByteBuffer out = ByteBuffer.allocateDirect(job.chunkSize + TAG_SIZE);
+        byte[] nonce = new byte[12];
+        System.arraycopy(job.header, 9, nonce, 0, 8);
+
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            while (!job.cancelled) {
+                // Publish a lower bound before claiming so the resume point never overshoots
+                job.inFlight.set(worker, job.nextChunk.get());
+                long chunk = job.nextChunk.getAndIncrement();
+                if (chunk >= job.totalChunks) {
+                    break;
+                }
+                job.inFlight.set(worker, chunk);
+                
+                long plainOffset = chunk * job.chunkSize;
+                int plainSize = (int) Math.min(job.chunkSize, job.plainLength - plainOffset);
+                long sealedOffset = job.header.length + chunk * (long) (job.chunkSize + TAG_SIZE);
+
+                nonce[8] = (byte) (chunk >>> 24);
+                nonce[9] = (byte) (chunk >>> 16);
+                nonce[10] = (byte) (chunk >>> 8);
+                nonce[11] = (byte) chunk;
+
+                in.clear();
+                out.clear();
+                if (job.encrypt) {
+                    in.limit(plainSize);
+                    readFully(job.input, in, plainOffset);
+                    in.flip();
+                    cipher.init(Cipher.ENCRYPT_MODE, job.key, new GCMParameterSpec(TAG_BITS, nonce));
+                    cipher.updateAAD(job.header);
+                    cipher.doFinal(in, out);
+                    out.flip();
+                    writeFully(job.output, out, sealedOffset);
+                } else {
+                    in.limit(plainSize + TAG_SIZE);
+                    readFully(job.input, in, sealedOffset);
+                    in.flip();
+                    cipher.init(Cipher.DECRYPT_MODE, job.key, new GCMParameterSpec(TAG_BITS, nonce));
+                    cipher.updateAAD(job.header);
+                    cipher.doFinal(in, out);
+                    out.flip();
+                    writeFully(job.output, out, plainOffset);
+                }
+
+                job.bytesDone.addAndGet(plainSize);
+                job.inFlight.set(worker, Long.MAX_VALUE);
+                long done = job.chunksDone.incrementAndGet();
+                maybeReportProgress(job, done);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "File crypto job " + job.id + " failed", e);
+            job.error.compareAndSet(null, e);
+            job.cancelled = true;
+        } finally {
+            if (job.error.get() == null) {
+                job.inFlight.set(worker, Long.MAX_VALUE);
+            }
+            if (job.workersLeft.decrementAndGet() == 0) {
+                finishJob(job);
+            }
+        }
+    }
+
+    private void maybeReportProgress(Job job, long chunksDone) {
+        long now = SystemClock.elapsedRealtime();
+        long last = job.lastProgressAt.get();
+        boolean finished = chunksDone + job.firstChunk >= job.totalChunks;
+        if (!finished && (now - last < PROGRESS_INTERVAL_MS || !job.lastProgressAt.compareAndSet(last, now))) {
+            return;
+        }
+        Map<String, Object> event = progressEvent(job, "progress");
+        mainHandler.post(() -> {
+            if (progressSink != null) {
+                progressSink.success(event);
+            }
+        });
+    }
+
+    private Map<String, Object> progressEvent(Job job, String type) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("jobId", job.id);
+        event.put("operation", job.encrypt ? "encrypt" : "decrypt");
+        // Chunk indexes below completedChunks are safe to skip when resuming
+        event.put("completedChunks", job.completedPrefix());
+        event.put("totalChunks", job.totalChunks);
+        event.put("bytesProcessed", job.firstChunk * job.chunkSize + job.bytesDone.get());
+        event.put("totalBytes", job.plainLength);
+        return event;
+    }
+
+    private void finishJob(Job job) {
+        jobs.remove(job.id);
+        try {
+            if (!job.encrypt && job.error.get() == null && !job.cancelled) {
+                job.output.truncate(job.plainLength);
+            }
+            job.output.force(false);
+        } catch (IOException e) {
+            job.error.compareAndSet(null, e);
+        }
+        closeQuietly(job.input);
+        closeQuietly(job.output);
+
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - job.startedAt);
+        double megabytesPerSecond = job.bytesDone.get() / 1048576.0 / (elapsedMs / 1000.0);
+        Log.i(TAG, "File crypto job " + job.id + " processed " + job.bytesDone.get() + " bytes in "
+                + elapsedMs + " ms (" + String.format(java.util.Locale.US, "%.1f", megabytesPerSecond) + " MB/s)");
+
+        Exception error = job.error.get();
+        Map<String, Object> summary = progressEvent(job, error != null ? "error" : job.cancelled ? "cancelled" : "done");
+        summary.put("elapsedMs", elapsedMs);
+        summary.put("megabytesPerSecond", megabytesPerSecond);
+
+        mainHandler.post(() -> {
+            if (progressSink != null) {
+                progressSink.success(summary);
+            }
+            if (error != null) {
+                job.result.error("FILE_CRYPTO_ERROR", error.getMessage(), summary);
+            } else if (job.cancelled) {
+                job.result.error("CANCELLED", "File crypto job cancelled", summary);
+            } else {
+                job.result.success(summary);
+            }
+        });
+    }
+
+    private void cancelJob(MethodCall call, Result result) {
+        String jobId = call.argument("jobId");
+        Job job = jobId != null ? jobs.get(jobId) : null;
+        if (job != null) {
+            job.cancelled = true;
+        }
+        result.success(job != null);
+    }
+
+    private static byte[] readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        return header.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing file channel", e);
+            }
+        }
+    }
+
+    private static final class Header {
+        final int chunkSize;
+        final long plainLength;
+
+        private Header(int chunkSize, long plainLength) {
+            this.chunkSize = chunkSize;
+            this.plainLength = plainLength;
+        }
+
+        static Header parse(ByteBuffer header) {
+            if (header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+                throw new IllegalArgumentException("Not a Falcon encrypted file");
+            }
+            int chunkSize = header.getInt(5);
+            long plainLength = header.getLong(17);
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE || plainLength < 0) {
+                throw new IllegalArgumentException("Corrupt encrypted file header");
+            }
+            return new Header(chunkSize, plainLength);
+        }
+    }
+
+    private static final class Job {
+        final String id;
+        final boolean encrypt;
+        final FileChannel input;
+        final FileChannel output;
+        final SecretKeySpec key;
+        final byte[] header;
+        final int chunkSize;
+        final long plainLength;
+        final long totalChunks;
+        final long firstChunk;
+        final long startedAt = SystemClock.elapsedRealtime();
+        final AtomicLong nextChunk;
+        final AtomicLong chunksDone = new AtomicLong();
+        final AtomicLong bytesDone = new AtomicLong();
+        final AtomicLong lastProgressAt = new AtomicLong();
+        final AtomicInteger workersLeft = new AtomicInteger();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        AtomicLongArray inFlight;
+        volatile boolean cancelled;
+        Result result;
+
+        Job(String id, boolean encrypt, FileChannel input, FileChannel output, byte[] key, byte[] header,
+            int chunkSize, long plainLength, long firstChunk) {
+            this.id = id;
+            this.encrypt = encrypt;
+            this.input = input;
+            this.output = output;
+            this.key = new SecretKeySpec(key, "AES");
+            this.header = header;
+            this.chunkSize = chunkSize;
+            this.plainLength = plainLength;
+            // An empty file still gets one authenticated chunk
+            this.totalChunks = Math.max(1, (plainLength + chunkSize - 1) / chunkSize);
+            if (totalChunks > MAX_CHUNKS) {
+                throw new IllegalArgumentException("File too large for the chunk size");
+            }
+            if (firstChunk > totalChunks) {
+                throw new IllegalArgumentException("resumeFromChunk is past the end of the file");
+            }
+            this.firstChunk = firstChunk;
+            this.nextChunk = new AtomicLong(firstChunk);
+        }
+
+        /**
+         * Every chunk below the oldest one still in flight is complete
+         */
+        long completedPrefix() {
+            long prefix = Math.min(nextChunk.get(), totalChunks);
+            for (int i = 0; i < inFlight.length(); i++) {
+                prefix = Math.min(prefix, inFlight.get(i));
+            }
+            return prefix;
+        }
+    }
+
+    @Override
+    public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+        channel.setMethodCallHandler(null);
+        progressChannel.setStreamHandler(null);
+        for (Job job : jobs.values()) {
+            job.cancelled = true;
+        }
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+        Log.d(TAG, "FileCryptoPlugin detached from engine");
+    }
+}
@@ -0,0 +1,258 @@
+package com.falcon.securechat.crypto;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Batch message crypto plugin for Flutter integration
+ * Encrypts or decrypts many chat messages per platform-channel round trip with
+ * AES-256-GCM on a background pool, keeping the work off the Dart UI isolate.
+ *
+ * Request (big-endian):  u8 op, u8 keyLength (always 32), key, u32 count, count x (u32 length, bytes)
+ * Reply:                 u8 status, u32 count, count x (i32 length, bytes); length -1 marks a failed item
+ *                        a batch that could not be processed at all gets a status-only reply
+ * Encrypted items are laid out as nonce (12) || ciphertext || tag (16).
+ */
+public class MessageCryptoPlugin implements FlutterPlugin, BasicMessageChannel.MessageHandler<ByteBuffer> {
+
+    private static final String TAG = "MessageCryptoPlugin";
+    private static final String CHANNEL = "falcon/crypto";
+
+    public static final byte OP_ENCRYPT = 1;
+    public static final byte OP_DECRYPT = 2;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_BAD_REQUEST = 1;
+    public static final byte STATUS_FAILED = 2;
+
+    private static final int KEY_SIZE = 32;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_SIZE = TAG_BITS / 8;
+
+    // Items per task; small batches stay on a single worker
+    private static final int CHUNK_SIZE = 256;
+
+    private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (Exception e) {
+                throw new IllegalStateException("AES-GCM unavailable", e);
+            }
+        }
+    };
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private BasicMessageChannel<ByteBuffer> channel;
+    private ExecutorService executorService;
+
+    @Override
+    public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
+        // The default codec hands us a heap copy, which may outlive this callback
+        channel = new BasicMessageChannel<>(flutterPluginBinding.getBinaryMessenger(), CHANNEL, BinaryCodec.INSTANCE);
+        channel.setMessageHandler(this);
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        executorService = Executors.newFixedThreadPool(threads);
+        Log.d(TAG, "MessageCryptoPlugin attached to engine with " + threads + " workers");
+    }
+
+    @Override
+    public void onMessage(@Nullable ByteBuffer message, @NonNull BasicMessageChannel.Reply<ByteBuffer> reply) {
+        Batch batch = message != null ? Batch.parse(message) : null;
+        if (batch == null) {
+            reply.reply(statusOnly(STATUS_BAD_REQUEST));
+            return;
+        }
+
+        int tasks = (batch.count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (tasks == 0) {
+            reply.reply(batch.encodeReply());
+            return;
+        }
+
+        // The last chunk to finish assembles the reply, so no pool thread ever blocks.
+        // Chunks that never ran count down too, or the Dart future would never complete.
+        AtomicInteger remaining = new AtomicInteger(tasks);
+        AtomicBoolean failed = new AtomicBoolean();
+        for (int task = 0; task < tasks; task++) {
+            final int from = task * CHUNK_SIZE;
+            final int to = Math.min(batch.count, from + CHUNK_SIZE);
+            try {
+                executorService.execute(() -> {
+                    try {
+                        process(batch, from, to);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Crypto chunk " + from + "-" + to + " failed", e);
+                        failed.set(true);
+                    } finally {
+                        finishChunk(batch, remaining, failed, reply);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Crypto pool rejected chunk " + from + "-" + to, e);
+                failed.set(true);
+                finishChunk(batch, remaining, failed, reply);
+            }
+        }
+    }
+
+    private void finishChunk(Batch batch, AtomicInteger remaining, AtomicBoolean failed,
+                             BasicMessageChannel.Reply<ByteBuffer> reply) {
+        if (remaining.decrementAndGet() == 0) {
+            ByteBuffer encoded = failed.get() ? statusOnly(STATUS_FAILED) : batch.encodeReply();
+            mainHandler.post(() -> reply.reply(encoded));
+        }
+    }
+
+    private void process(Batch batch, int from, int to) {
+        Cipher cipher = CIPHERS.get();
+        byte[] nonce = new byte[NONCE_SIZE];
+        for (int i = from; i < to; i++) {
+            try {
+                if (batch.op == OP_ENCRYPT) {
+                    secureRandom.nextBytes(nonce);
+                    cipher.init(Cipher.ENCRYPT_MODE, batch.key, new GCMParameterSpec(TAG_BITS, nonce));
+                    byte[] out = new byte[NONCE_SIZE + cipher.getOutputSize(batch.lengths[i])];
+                    System.arraycopy(nonce, 0, out, 0, NONCE_SIZE);
+                    cipher.doFinal(batch.input, batch.offsets[i], batch.lengths[i], out, NONCE_SIZE);
+                    batch.results[i] = out;
+                } else {
+                    if (batch.lengths[i] < NONCE_SIZE + TAG_SIZE) {
+                        continue;
+                    }
+                    cipher.init(Cipher.DECRYPT_MODE, batch.key,
+                            new GCMParameterSpec(TAG_BITS, batch.input, batch.offsets[i], NONCE_SIZE));
+                    batch.results[i] = cipher.doFinal(batch.input, batch.offsets[i] + NONCE_SIZE,
+                            batch.lengths[i] - NONCE_SIZE);
+                }
+            } catch (Exception e) {
+                // Leave the slot empty; one bad row must not fail the whole history page
+                Log.w(TAG, "Message " + i + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static ByteBuffer statusOnly(byte status) {
+        ByteBuffer out = ByteBuffer.allocateDirect(5);
+        out.put(status).putInt(0);
+        return out;
+    }
+
+    /**
+     * One decoded request; items stay in the request array and are addressed by offset
+     */
+    private static final class Batch {
+        final byte op;
+        final SecretKeySpec key;
+        final byte[] input;
+        final int count;
+        final int[] offsets;
+        final int[] lengths;
+        final byte[][] results;
+
+        private Batch(byte op, SecretKeySpec key, byte[] input, int count, int[] offsets, int[] lengths) {
+            this.op = op;
+            this.key = key;
+            this.input = input;
+            this.count = count;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.results = new byte[count][];
+        }
+
+        static Batch parse(ByteBuffer message) {
+            try {
+                message.rewind();
+                byte[] input;
+                if (message.hasArray() && message.arrayOffset() == 0 && message.remaining() == message.array().length) {
+                    input = message.array();
+                } else {
+                    input = new byte[message.remaining()];
+                    message.get(input);
+                }
+                ByteBuffer in = ByteBuffer.wrap(input);
+
+                byte op = in.get();
+                if (op != OP_ENCRYPT && op != OP_DECRYPT) {
+                    return null;
+                }
+                // Only AES-256 keys; a shorter key would silently select AES-128
+                int keyLength = in.get() & 0xFF;
+                if (keyLength != KEY_SIZE) {
+                    return null;
+                }
+                SecretKeySpec key = new SecretKeySpec(input, in.position(), keyLength, "AES");
+                in.position(in.position() + keyLength);
+
+                int count = in.getInt();
+                if (count < 0 || count > in.remaining() / 4) {
+                    return null;
+                }
+                int[] offsets = new int[count];
+                int[] lengths = new int[count];
+                for (int i = 0; i < count; i++) {
+                    int length = in.getInt();
+                    if (length < 0 || length > in.remaining()) {
+                        return null;
+                    }
+                    offsets[i] = in.position();
+                    lengths[i] = length;
+                    in.position(in.position() + length);
+                }
+                return new Batch(op, key, input, count, offsets, lengths);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Malformed crypto batch", e);
+                return null;
+            }
+        }
+
+        ByteBuffer encodeReply() {
+            int size = 5;
+            for (byte[] result : results) {
+                size += 4 + (result != null ? result.length : 0);
+            }
+            ByteBuffer out = ByteBuffer.allocateDirect(size);
+            out.put(STATUS_OK).putInt(count);
+            for (byte[] result : results) {
+                if (result == null) {
+                    out.putInt(-1);
+                } else {
+                    out.putInt(result.length).put(result);
+                }
+            }
+            return out;
+        }
+    }
+
+    @Override
+    public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+        channel.setMessageHandler(null);
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+        Log.d(TAG, "MessageCryptoPlugin detached from engine");
+    }
+}
@@ -0,0 +1,792 @@
+package com.falcon.securechat.search;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Incremental inverted index over message text, ranked with BM25
+ *
+ * Postings live in memory as delta/varint encoded byte arrays. Every change
+ * is appended to a log of AES-256-GCM frames that is replayed on open, so no
+ * message text ever reaches disk in the clear; the log is compacted on open
+ * once deleted documents outnumber live ones. Documents get ascending
+ * ordinals, which keeps every posting list sorted without re-sorting; a
+ * replaced message retires its old ordinal and takes a new one, so a later
+ * add record in the log always supersedes an earlier one for the same id.
+ *
+ * Not thread-safe: the plugin confines it to a single executor thread.
+ */
+final class MessageSearchIndex implements Closeable {
+
+    private static final String TAG = "MessageSearchIndex";
+
+    static final int MAX_TERM_LENGTH = 32;
+    // Completions considered for the last, prefix-matched query term
+    static final int MAX_PREFIX_TERMS = 128;
+
+    private static final int MAX_DOCS = 1 << 24;
+    private static final int MAX_FRAME = 16 << 20;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_BITS = 128;
+
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_DELETE_BEFORE = 2;
+
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final File file;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Cipher cipher;
+
+    private SecretKeySpec key;
+    private DataOutputStream log;
+    private long logLength;
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final HashMap<String, Integer> ordinals = new HashMap<>();
+    private String[] ids = new String[1024];
+    private long[] timestamps = new long[1024];
+    private int[] docLengths = new int[1024];
+    private final BitSet deleted = new BitSet();
+    private int docCount;
+    private int liveCount;
+    private long liveLength;
+
+    // Reused while tokenizing one message
+    private final HashMap<String, int[]> termCounts = new HashMap<>();
+    private final StringBuilder token = new StringBuilder(MAX_TERM_LENGTH);
+    // Last term of the tokenized text, null when the text ended on a separator
+    private String trailingTerm;
+
+    MessageSearchIndex(File file) {
+        this.file = file;
+        try {
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM unavailable", e);
+        }
+    }
+
+    boolean isOpen() {
+        return log != null;
+    }
+
+    /**
+     * Whether an index was ever built here, open or not
+     */
+    boolean exists() {
+        return file.exists();
+    }
+
+    int liveCount() {
+        return liveCount;
+    }
+
+    /**
+     * Load the log with the given key; a log written under another key, or
+     * one that fails authentication from the first frame, is discarded since
+     * the index can always be rebuilt from the message table
+     */
+    void open(byte[] keyBytes) throws IOException {
+        close();
+        key = new SecretKeySpec(keyBytes, "AES");
+        resetMemory();
+
+        long validLength = replay(false);
+        if (validLength < file.length()) {
+            Log.w(TAG, "Dropping " + (file.length() - validLength) + " unreadable log bytes");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+
+        int garbage = docCount - liveCount;
+        if (garbage >= 1024 && garbage > liveCount) {
+            compact();
+        }
+
+        logLength = file.length();
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024));
+        Log.d(TAG, "Search index open: " + liveCount + " messages, " + terms.size() + " terms");
+    }
+
+    /**
+     * Index a batch of messages in one log frame. Ids already present are
+     * skipped, or with replace set re-indexed from the new text.
+     *
+     * @return the number of messages added or replaced
+     */
+    int add(String[] messageIds, long[] messageTimestamps, String[] texts, boolean replace) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(frame);
+        int added = 0;
+        for (int i = 0; i < messageIds.length; i++) {
+            Integer existing = ordinals.get(messageIds[i]);
+            if (existing != null && !replace) {
+                continue;
+            }
+            if (docCount >= MAX_DOCS) {
+                Log.w(TAG, "Index full until the next compaction");
+                break;
+            }
+            int length = tokenize(texts[i]);
+            String[] docTerms = new String[termCounts.size()];
+            int[] docTfs = new int[docTerms.length];
+            int t = 0;
+            for (Map.Entry<String, int[]> entry : termCounts.entrySet()) {
+                docTerms[t] = entry.getKey();
+                docTfs[t++] = Math.min(255, entry.getValue()[0]);
+            }
+            if (existing != null) {
+                retire(existing);
+            }
+            applyAdd(messageIds[i], messageTimestamps[i], length, docTerms, docTfs);
+            writeAdd(out, messageIds[i], messageTimestamps[i], length, docTerms, docTfs);
+            added++;
+        }
+        if (added > 0) {
+            appendFrame(frame.toByteArray());
+        }
+        return added;
+    }
+
+    /**
+     * Drop every message older than the cutoff, mirroring the auto-delete sweep
+     *
+     * @return the number of messages removed
+     */
+    int deleteBefore(long cutoff) throws IOException {
+        int removed = applyDeleteBefore(cutoff);
+        if (removed > 0) {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(9);
+            DataOutputStream out = new DataOutputStream(frame);
+            out.writeByte(RECORD_DELETE_BEFORE);
+            out.writeLong(cutoff);
+            appendFrame(frame.toByteArray());
+        }
+        return removed;
+    }
+
+    /**
+     * Remove the log and everything indexed; the index stays open
+     */
+    void clear() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+        resetMemory();
+        logLength = 0;
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024));
+    }
+
+    /**
+     * All query terms must match; the last one also matches as a prefix so
+     * results follow the user while typing. Ties rank the newer message first.
+     */
+    Page search(String query, int offset, int limit) {
+        tokenize(query);
+        List<String> queryTerms = new ArrayList<>(termCounts.keySet());
+        if (queryTerms.isEmpty() || liveCount == 0) {
+            return Page.EMPTY;
+        }
+        // The last typed term is the one still being completed
+        String prefix = trailingTerm;
+
+        List<int[][]> lists = new ArrayList<>(queryTerms.size());
+        for (String term : queryTerms) {
+            int[][] list = term.equals(prefix) && term.length() >= 2
+                    ? decodePrefix(term) : decode(terms.get(term));
+            if (list == null) {
+                return Page.EMPTY;
+            }
+            lists.add(list);
+        }
+        // Drive the intersection from the rarest term
+        Collections.sort(lists, (a, b) -> Integer.compare(a[0].length, b[0].length));
+
+        int wanted = Math.max(0, Math.min(offset + limit, 10_000));
+        TopK top = new TopK(wanted);
+        double averageLength = (double) liveLength / liveCount;
+        double[] idf = new double[lists.size()];
+        for (int t = 0; t < idf.length; t++) {
+            double df = lists.get(t)[0].length;
+            idf[t] = Math.log(1 + (liveCount - df + 0.5) / (df + 0.5));
+        }
+
+        int[] cursors = new int[lists.size()];
+        int[] driver = lists.get(0)[0];
+        int total = 0;
+        candidates:
+        for (int i = 0; i < driver.length; i++) {
+            int ordinal = driver[i];
+            if (deleted.get(ordinal)) {
+                continue;
+            }
+            double norm = K1 * (1 - B + B * docLengths[ordinal] / averageLength);
+            double score = idf[0] * bm25(lists.get(0)[1][i], norm);
+            for (int t = 1; t < cursors.length; t++) {
+                int[] other = lists.get(t)[0];
+                int c = advance(other, cursors[t], ordinal);
+                cursors[t] = c;
+                if (c == other.length) {
+                    break candidates;
+                }
+                if (other[c] != ordinal) {
+                    continue candidates;
+                }
+                score += idf[t] * bm25(lists.get(t)[1][c], norm);
+            }
+            total++;
+            top.offer(ordinal, score);
+        }
+
+        int[] ranked = top.drain();
+        int from = Math.min(offset, ranked.length);
+        int to = Math.min(ranked.length, from + limit);
+        String[] page = new String[to - from];
+        for (int i = from; i < to; i++) {
+            page[i - from] = ids[ranked[i]];
+        }
+        return new Page(total, page);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    // --- Index mutation
+
+    private void applyAdd(String id, long timestamp, int length, String[] docTerms, int[] docTfs) {
+        int ordinal = docCount++;
+        if (ordinal == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            docLengths = Arrays.copyOf(docLengths, capacity);
+        }
+        ids[ordinal] = id;
+        timestamps[ordinal] = timestamp;
+        docLengths[ordinal] = length;
+        ordinals.put(id, ordinal);
+        liveCount++;
+        liveLength += length;
+
+        for (int t = 0; t < docTerms.length; t++) {
+            Postings postings = terms.get(docTerms[t]);
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(docTerms[t], postings);
+            }
+            postings.append(ordinal, docTfs[t]);
+        }
+    }
+
+    private int applyDeleteBefore(long cutoff) {
+        int removed = 0;
+        for (int ordinal = 0; ordinal < docCount; ordinal++) {
+            if (timestamps[ordinal] < cutoff && !deleted.get(ordinal)) {
+                retire(ordinal);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Mark a document deleted; its postings stay until the next compaction
+     * and are skipped by queries
+     */
+    private void retire(int ordinal) {
+        deleted.set(ordinal);
+        ordinals.remove(ids[ordinal]);
+        ids[ordinal] = null;
+        liveCount--;
+        liveLength -= docLengths[ordinal];
+    }
+
+    private void resetMemory() {
+        terms.clear();
+        ordinals.clear();
+        ids = new String[1024];
+        timestamps = new long[1024];
+        docLengths = new int[1024];
+        deleted.clear();
+        docCount = 0;
+        liveCount = 0;
+        liveLength = 0;
+    }
+
+    // --- Tokenizer
+
+    /**
+     * Fill termCounts with the lower-cased letter/digit runs of text
+     *
+     * @return the token count
+     */
+    private int tokenize(String text) {
+        termCounts.clear();
+        token.setLength(0);
+        trailingTerm = null;
+        int count = 0;
+        for (int i = 0, n = text.length(); i <= n; ) {
+            int cp = i < n ? text.codePointAt(i) : ' ';
+            i += i < n ? Character.charCount(cp) : 1;
+            if (Character.isLetterOrDigit(cp)) {
+                if (token.length() < MAX_TERM_LENGTH) {
+                    token.appendCodePoint(Character.toLowerCase(cp));
+                }
+            } else if (token.length() > 0) {
+                String term = token.toString();
+                int[] tf = termCounts.get(term);
+                if (tf == null) {
+                    termCounts.put(term, new int[] {1});
+                } else {
+                    tf[0]++;
+                }
+                token.setLength(0);
+                count++;
+                trailingTerm = i > n ? term : null;
+            } else {
+                trailingTerm = null;
+            }
+        }
+        return count;
+    }
+
+    // --- Query helpers
+
+    private static double bm25(int tf, double norm) {
+        return tf * (K1 + 1) / (tf + norm);
+    }
+
+    /**
+     * First index at or after from whose ordinal is at least target, galloping
+     */
+    private static int advance(int[] ordinalsList, int from, int target) {
+        int step = 1;
+        int low = from;
+        int high = from;
+        while (high < ordinalsList.length && ordinalsList[high] < target) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, ordinalsList.length);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ordinalsList[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[][] decode(Postings postings) {
+        if (postings == null) {
+            return null;
+        }
+        int[] docs = new int[postings.count];
+        int[] tfs = new int[postings.count];
+        postings.decodeInto(docs, tfs, 0);
+        return new int[][] {docs, tfs};
+    }
+
+    /**
+     * Union of the postings of every term starting with prefix, tf summed per document
+     */
+    private int[][] decodePrefix(String prefix) {
+        SortedMap<String, Postings> matches = terms.subMap(prefix, prefix + Character.MAX_VALUE);
+        if (matches.isEmpty()) {
+            return null;
+        }
+        int size = 0;
+        int taken = 0;
+        for (Postings postings : matches.values()) {
+            if (taken++ == MAX_PREFIX_TERMS) {
+                break;
+            }
+            size += postings.count;
+        }
+        // ordinal in the high half, tf in the low half, so sorting orders by document
+        long[] packed = new long[size];
+        int[] docs = new int[256];
+        int[] tfs = new int[256];
+        int n = 0;
+        taken = 0;
+        for (Postings postings : matches.values()) {
+            if (taken++ == MAX_PREFIX_TERMS) {
+                break;
+            }
+            if (docs.length < postings.count) {
+                docs = new int[postings.count];
+                tfs = new int[postings.count];
+            }
+            postings.decodeInto(docs, tfs, 0);
+            for (int i = 0; i < postings.count; i++) {
+                packed[n++] = (long) docs[i] << 32 | tfs[i];
+            }
+        }
+        Arrays.sort(packed);
+
+        int[] unionDocs = new int[size];
+        int[] unionTfs = new int[size];
+        int u = -1;
+        for (long entry : packed) {
+            int ordinal = (int) (entry >>> 32);
+            if (u >= 0 && unionDocs[u] == ordinal) {
+                unionTfs[u] += (int) entry;
+            } else {
+                u++;
+                unionDocs[u] = ordinal;
+                unionTfs[u] = (int) entry;
+            }
+        }
+        return new int[][] {Arrays.copyOf(unionDocs, u + 1), Arrays.copyOf(unionTfs, u + 1)};
+    }
+
+    // --- Log
+
+    private static void writeAdd(DataOutputStream out, String id, long timestamp, int length,
+                                 String[] docTerms, int[] docTfs) throws IOException {
+        out.writeByte(RECORD_ADD);
+        writeString(out, id);
+        out.writeLong(timestamp);
+        out.writeInt(length);
+        out.writeShort(docTerms.length);
+        for (int t = 0; t < docTerms.length; t++) {
+            writeString(out, docTerms[t]);
+            out.writeByte(docTfs[t]);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private void appendFrame(byte[] plaintext) throws IOException {
+        byte[] frame = seal(plaintext, logLength);
+        log.writeInt(frame.length);
+        log.write(frame);
+        log.flush();
+        logLength += 4 + frame.length;
+    }
+
+    /**
+     * Frames are bound to their file offset, so they cannot be reordered or spliced
+     */
+    private byte[] seal(byte[] plaintext, long offset) throws IOException {
+        try {
+            byte[] nonce = new byte[NONCE_SIZE];
+            secureRandom.nextBytes(nonce);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(ByteBuffer.allocate(8).putLong(offset).array());
+            byte[] frame = new byte[NONCE_SIZE + cipher.getOutputSize(plaintext.length)];
+            System.arraycopy(nonce, 0, frame, 0, NONCE_SIZE);
+            cipher.doFinal(plaintext, 0, plaintext.length, frame, NONCE_SIZE);
+            return frame;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot seal index frame", e);
+        }
+    }
+
+    private byte[] unseal(byte[] frame, long offset) {
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, frame, 0, NONCE_SIZE));
+            cipher.updateAAD(ByteBuffer.allocate(8).putLong(offset).array());
+            return cipher.doFinal(frame, NONCE_SIZE, frame.length - NONCE_SIZE);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Apply every readable frame; with rewrite set, only re-emit the records
+     * that are still live into a fresh log instead
+     *
+     * @return the length of the readable prefix of the log
+     */
+    private long replay(boolean rewrite) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        File target = new File(file.getPath() + ".compact");
+        // Add records map one to one onto ordinals, in log order
+        int adds = 0;
+        long offset = 0;
+        long targetLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+             DataOutputStream out = rewrite
+                     ? new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 64 * 1024))
+                     : null) {
+            while (true) {
+                int length;
+                byte[] frame;
+                try {
+                    length = in.readInt();
+                    if (length <= NONCE_SIZE || length > MAX_FRAME) {
+                        break;
+                    }
+                    frame = new byte[length];
+                    in.readFully(frame);
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] plaintext = unseal(frame, offset);
+                if (plaintext == null) {
+                    break;
+                }
+
+                ByteBuffer records = ByteBuffer.wrap(plaintext);
+                ByteArrayOutputStream live = rewrite ? new ByteArrayOutputStream() : null;
+                while (records.hasRemaining()) {
+                    byte type = records.get();
+                    if (type == RECORD_DELETE_BEFORE) {
+                        long cutoff = records.getLong();
+                        if (!rewrite) {
+                            applyDeleteBefore(cutoff);
+                        }
+                        continue;
+                    }
+                    String id = readString(records);
+                    long timestamp = records.getLong();
+                    int docLength = records.getInt();
+                    int count = records.getShort() & 0xFFFF;
+                    String[] docTerms = new String[count];
+                    int[] docTfs = new int[count];
+                    for (int t = 0; t < count; t++) {
+                        docTerms[t] = readString(records);
+                        docTfs[t] = records.get() & 0xFF;
+                    }
+                    if (!rewrite) {
+                        if (docCount < MAX_DOCS) {
+                            Integer existing = ordinals.get(id);
+                            if (existing != null) {
+                                retire(existing);
+                            }
+                            applyAdd(id, timestamp, docLength, docTerms, docTfs);
+                        }
+                    } else {
+                        int ordinal = adds++;
+                        if (ordinal < docCount && !deleted.get(ordinal)) {
+                            writeAdd(new DataOutputStream(live), id, timestamp, docLength, docTerms, docTfs);
+                        }
+                    }
+                }
+                if (rewrite && live.size() > 0) {
+                    byte[] sealed = seal(live.toByteArray(), targetLength);
+                    out.writeInt(sealed.length);
+                    out.write(sealed);
+                    targetLength += 4 + sealed.length;
+                }
+                offset += 4 + length;
+            }
+        } catch (RuntimeException e) {
+            // A frame that authenticated but does not parse: keep what came before it
+            Log.w(TAG, "Malformed index frame at " + offset, e);
+        }
+        if (rewrite && !target.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+        return offset;
+    }
+
+    private void compact() throws IOException {
+        int before = docCount;
+        replay(true);
+        resetMemory();
+        replay(false);
+        Log.d(TAG, "Compacted search index from " + before + " to " + docCount + " documents");
+    }
+
+    /**
+     * Postings for one term: (ordinal delta varint, tf byte) pairs
+     */
+    private static final class Postings {
+        byte[] data = new byte[8];
+        int size;
+        int count;
+        int lastOrdinal;
+
+        void append(int ordinal, int tf) {
+            if (size + 6 > data.length) {
+                data = Arrays.copyOf(data, data.length + (data.length >> 1) + 6);
+            }
+            int delta = ordinal - lastOrdinal;
+            while ((delta & ~0x7F) != 0) {
+                data[size++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[size++] = (byte) delta;
+            data[size++] = (byte) tf;
+            lastOrdinal = ordinal;
+            count++;
+        }
+
+        void decodeInto(int[] docs, int[] tfs, int from) {
+            int ordinal = 0;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                ordinal += delta;
+                docs[from + i] = ordinal;
+                tfs[from + i] = data[position++] & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * Bounded min-heap keeping the best k (score, newer first) documents
+     */
+    private final class TopK {
+        final int k;
+        final int[] heap;
+        final double[] scores;
+        int size;
+
+        TopK(int k) {
+            this.k = k;
+            this.heap = new int[k];
+            this.scores = new double[k];
+        }
+
+        void offer(int ordinal, double score) {
+            if (k == 0) {
+                return;
+            }
+            if (size < k) {
+                heap[size] = ordinal;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (worse(heap[0], scores[0], ordinal, score)) {
+                heap[0] = ordinal;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * Empty the heap, best document first
+         */
+        int[] drain() {
+            int[] ranked = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                ranked[i] = heap[0];
+                size--;
+                heap[0] = heap[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+            return ranked;
+        }
+
+        private boolean worse(int a, double scoreA, int b, double scoreB) {
+            return scoreA < scoreB || (scoreA == scoreB && timestamps[a] < timestamps[b]);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(heap[i], scores[i], heap[parent], scores[parent])) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= size) {
+                    return;
+                }
+                int child = left + 1 < size && worse(heap[left + 1], scores[left + 1], heap[left], scores[left])
+                        ? left + 1 : left;
+                if (!worse(heap[child], scores[child], heap[i], scores[i])) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int ordinal = heap[a];
+            heap[a] = heap[b];
+            heap[b] = ordinal;
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+
+    /**
+     * One page of ranked message ids plus the total number of matches
+     */
+    static final class Page {
+        static final Page EMPTY = new Page(0, new String[0]);
+
+        final int total;
+        final String[] ids;
+
+        Page(int total, String[] ids) {
+            this.total = total;
+            this.ids = ids;
+        }
+    }
+}
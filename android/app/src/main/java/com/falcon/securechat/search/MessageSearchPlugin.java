@@ -0,0 +1,209 @@
+package com.falcon.securechat.search;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Message full-text search plugin for Flutter integration
+ * Keeps an incremental inverted index next to the message table and answers
+ * queries with ranked pages of message ids. The index is built by the first
+ * search and replayed from its encrypted log after that.
+ *
+ * Request (big-endian), by op:
+ *   OPEN           u8 op, u8 keyLength (always 32), key
+ *   REOPEN         as OPEN, but replies NOT_FOUND instead of creating a new index
+ *   INDEX          u8 op, u32 count, count x (u16 idLength, id, i64 timestamp, u32 textLength, text)
+ *   REPLACE        as INDEX, but ids already indexed are re-indexed instead of skipped
+ *   DELETE_BEFORE  u8 op, i64 cutoff
+ *   QUERY          u8 op, u32 offset, u32 limit, u16 queryLength, query
+ *   CLEAR          u8 op
+ * Reply: u8 status, u32 value (live messages, or changed messages for INDEX, REPLACE and DELETE_BEFORE);
+ *        QUERY replies with u8 status, u32 total, u32 count, count x (u16 idLength, id)
+ * Strings are UTF-8.
+ */
+public class MessageSearchPlugin implements FlutterPlugin, BasicMessageChannel.MessageHandler<ByteBuffer> {
+
+    private static final String TAG = "MessageSearchPlugin";
+    private static final String CHANNEL = "falcon/search";
+    private static final String INDEX_FILE = "message_search.idx";
+
+    public static final byte OP_OPEN = 1;
+    public static final byte OP_INDEX = 2;
+    public static final byte OP_DELETE_BEFORE = 3;
+    public static final byte OP_QUERY = 4;
+    public static final byte OP_CLEAR = 5;
+    public static final byte OP_REOPEN = 6;
+    public static final byte OP_REPLACE = 7;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_BAD_REQUEST = 1;
+    public static final byte STATUS_NOT_OPEN = 2;
+    public static final byte STATUS_IO_ERROR = 3;
+    public static final byte STATUS_NOT_FOUND = 4;
+
+    private static final int KEY_SIZE = 32;
+    private static final int MAX_PAGE = 500;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private BasicMessageChannel<ByteBuffer> channel;
+    // One thread owns the index, so writes and queries never interleave
+    private ExecutorService executorService;
+    private MessageSearchIndex index;
+
+    @Override
+    public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
+        channel = new BasicMessageChannel<>(flutterPluginBinding.getBinaryMessenger(), CHANNEL, BinaryCodec.INSTANCE);
+        channel.setMessageHandler(this);
+        executorService = Executors.newSingleThreadExecutor();
+        // Derived data: rebuilt from the message table, so kept out of backups
+        index = new MessageSearchIndex(new File(flutterPluginBinding.getApplicationContext().getNoBackupFilesDir(), INDEX_FILE));
+        Log.d(TAG, "MessageSearchPlugin attached to engine");
+    }
+
+    @Override
+    public void onMessage(@Nullable ByteBuffer message, @NonNull BasicMessageChannel.Reply<ByteBuffer> reply) {
+        if (message == null) {
+            reply.reply(status(STATUS_BAD_REQUEST, 0));
+            return;
+        }
+        // The binary codec hands us a buffer that stays valid after this callback
+        executorService.execute(() -> {
+            ByteBuffer result = handle(message);
+            mainHandler.post(() -> reply.reply(result));
+        });
+    }
+
+    private ByteBuffer handle(ByteBuffer message) {
+        long started = System.nanoTime();
+        try {
+            message.rewind();
+            byte op = message.get();
+            if (op == OP_OPEN || op == OP_REOPEN) {
+                if (op == OP_REOPEN && !index.exists()) {
+                    return status(STATUS_NOT_FOUND, 0);
+                }
+                int keyLength = message.get() & 0xFF;
+                // Only AES-256 keys; a shorter key would silently select AES-128
+                if (keyLength != KEY_SIZE) {
+                    return status(STATUS_BAD_REQUEST, 0);
+                }
+                byte[] key = new byte[keyLength];
+                message.get(key);
+                index.open(key);
+                return status(STATUS_OK, index.liveCount());
+            }
+            if (!index.isOpen()) {
+                return status(STATUS_NOT_OPEN, 0);
+            }
+
+            switch (op) {
+                case OP_INDEX:
+                case OP_REPLACE: {
+                    int count = message.getInt();
+                    if (count < 0 || count > message.remaining() / 14) {
+                        return status(STATUS_BAD_REQUEST, 0);
+                    }
+                    String[] ids = new String[count];
+                    long[] timestamps = new long[count];
+                    String[] texts = new String[count];
+                    for (int i = 0; i < count; i++) {
+                        ids[i] = readString(message, message.getShort() & 0xFFFF);
+                        timestamps[i] = message.getLong();
+                        texts[i] = readString(message, message.getInt());
+                    }
+                    int added = index.add(ids, timestamps, texts, op == OP_REPLACE);
+                    Log.d(TAG, "Indexed " + added + "/" + count + " messages in "
+                            + (System.nanoTime() - started) / 1000 + "us");
+                    return status(STATUS_OK, added);
+                }
+                case OP_DELETE_BEFORE:
+                    return status(STATUS_OK, index.deleteBefore(message.getLong()));
+                case OP_QUERY: {
+                    int offset = message.getInt();
+                    int limit = message.getInt();
+                    String query = readString(message, message.getShort() & 0xFFFF);
+                    if (offset < 0 || limit < 0 || limit > MAX_PAGE) {
+                        return status(STATUS_BAD_REQUEST, 0);
+                    }
+                    MessageSearchIndex.Page page = index.search(query, offset, limit);
+                    Log.d(TAG, "Query matched " + page.total + " messages in "
+                            + (System.nanoTime() - started) / 1000 + "us");
+                    return encodePage(page);
+                }
+                case OP_CLEAR:
+                    index.clear();
+                    return status(STATUS_OK, 0);
+                default:
+                    return status(STATUS_BAD_REQUEST, 0);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Search index I/O failed", e);
+            return status(STATUS_IO_ERROR, 0);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Malformed search request", e);
+            return status(STATUS_BAD_REQUEST, 0);
+        }
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("String length " + length + " exceeds request");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer encodePage(MessageSearchIndex.Page page) {
+        byte[][] ids = new byte[page.ids.length][];
+        int size = 9;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = page.ids[i].getBytes(StandardCharsets.UTF_8);
+            size += 2 + ids[i].length;
+        }
+        ByteBuffer out = ByteBuffer.allocateDirect(size);
+        out.put(STATUS_OK).putInt(page.total).putInt(ids.length);
+        for (byte[] id : ids) {
+            out.putShort((short) id.length).put(id);
+        }
+        return out;
+    }
+
+    private static ByteBuffer status(byte status, int value) {
+        ByteBuffer out = ByteBuffer.allocateDirect(5);
+        out.put(status).putInt(value);
+        return out;
+    }
+
+    @Override
+    public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
+        channel.setMessageHandler(null);
+        if (executorService != null) {
+            executorService.execute(() -> {
+                try {
+                    index.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error closing search index", e);
+                }
+            });
+            executorService.shutdown();
+        }
+        Log.d(TAG, "MessageSearchPlugin detached from engine");
+    }
+}
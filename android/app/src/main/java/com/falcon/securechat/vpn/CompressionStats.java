@@ -0,0 +1,43 @@
+package com.falcon.securechat.vpn;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable totals for tunnel payload compression, published with the traffic counters
+ */
+public final class CompressionStats {
+
+    public static final CompressionStats EMPTY = new CompressionStats(false, 0, 0, 0, 0, 0);
+
+    // Both sides advertised support, so outgoing packets may be compressed
+    public final boolean negotiated;
+    public final long packetsCompressed;
+    // Candidates rejected by the entropy sample or because they would not shrink
+    public final long packetsSkipped;
+    public final long bytesIn;
+    public final long bytesSaved;
+    // Wall time spent in compress and decompress on the tunnel thread
+    public final long cpuMicros;
+
+    public CompressionStats(boolean negotiated, long packetsCompressed, long packetsSkipped,
+                            long bytesIn, long bytesSaved, long cpuMicros) {
+        this.negotiated = negotiated;
+        this.packetsCompressed = packetsCompressed;
+        this.packetsSkipped = packetsSkipped;
+        this.bytesIn = bytesIn;
+        this.bytesSaved = bytesSaved;
+        this.cpuMicros = cpuMicros;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("negotiated", negotiated);
+        map.put("packetsCompressed", packetsCompressed);
+        map.put("packetsSkipped", packetsSkipped);
+        map.put("bytesIn", bytesIn);
+        map.put("bytesSaved", bytesSaved);
+        map.put("cpuMicros", cpuMicros);
+        return map;
+    }
+}
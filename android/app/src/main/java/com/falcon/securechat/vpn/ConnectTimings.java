@@ -0,0 +1,65 @@
+package com.falcon.securechat.vpn;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable per-phase breakdown of one connect attempt, in milliseconds
+ * Init, establish and socket are durations of phases that run concurrently;
+ * first handshake and first data are measured from the start of the attempt.
+ * Phases that have not completed yet are reported as -1.
+ */
+public final class ConnectTimings {
+
+    public enum Phase {
+        INIT("initMs"),
+        ESTABLISH("establishMs"),
+        SOCKET("socketMs"),
+        FIRST_HANDSHAKE("firstHandshakeMs"),
+        FIRST_DATA("firstDataMs");
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    public static final ConnectTimings EMPTY = new ConnectTimings(empty());
+
+    private final long[] durations;
+
+    private ConnectTimings(long[] durations) {
+        this.durations = durations;
+    }
+
+    private static long[] empty() {
+        long[] durations = new long[Phase.values().length];
+        Arrays.fill(durations, -1);
+        return durations;
+    }
+
+    public ConnectTimings with(Phase phase, long millis) {
+        long[] copy = Arrays.copyOf(durations, durations.length);
+        copy[phase.ordinal()] = millis;
+        return new ConnectTimings(copy);
+    }
+
+    public long get(Phase phase) {
+        return durations[phase.ordinal()];
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        for (Phase phase : Phase.values()) {
+            map.put(phase.key, durations[phase.ordinal()]);
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
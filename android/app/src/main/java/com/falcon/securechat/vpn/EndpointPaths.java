@@ -0,0 +1,132 @@
+package com.falcon.securechat.vpn;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable per-address-family view of the outer path to the endpoint
+ * Connect time is measured from the start of the attempt to the first
+ * answer on that family; RTT follows the latest keepalive echo on the
+ * selected path. Unknown values are reported as -1.
+ */
+public final class EndpointPaths {
+
+    public enum Family {
+        IPV4("ipv4"),
+        IPV6("ipv6");
+
+        final String key;
+
+        Family(String key) {
+            this.key = key;
+        }
+    }
+
+    public static final String STATE_UNRESOLVED = "unresolved";
+    // Carries the tunnel
+    public static final String STATE_SELECTED = "selected";
+    // Answered, but after the selected path
+    public static final String STATE_SLOWER = "slower";
+    // Probed without an answer before the race ended
+    public static final String STATE_UNANSWERED = "unanswered";
+    // Never probed: the other family answered within the attempt delay
+    public static final String STATE_SKIPPED = "skipped";
+    public static final String STATE_FAILED = "failed";
+
+    /**
+     * One family's outcome
+     */
+    public static final class Path {
+        static final Path UNRESOLVED = new Path(null, STATE_UNRESOLVED, -1, -1);
+
+        public final String address;
+        public final String state;
+        public final long connectMs;
+        public final long rttMicros;
+
+        public Path(String address, String state, long connectMs, long rttMicros) {
+            this.address = address;
+            this.state = state;
+            this.connectMs = connectMs;
+            this.rttMicros = rttMicros;
+        }
+
+        Path withRtt(long newRttMicros) {
+            return new Path(address, state, connectMs, newRttMicros);
+        }
+
+        Path withConnect(long newConnectMs) {
+            return new Path(address, state, newConnectMs, rttMicros);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("address", address);
+            map.put("state", state);
+            map.put("connectMs", connectMs);
+            map.put("rttMicros", rttMicros);
+            return map;
+        }
+    }
+
+    public static final EndpointPaths EMPTY = new EndpointPaths(Path.UNRESOLVED, Path.UNRESOLVED);
+
+    private final Path ipv4;
+    private final Path ipv6;
+
+    private EndpointPaths(Path ipv4, Path ipv6) {
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+    }
+
+    public EndpointPaths with(Family family, Path path) {
+        return family == Family.IPV4 ? new EndpointPaths(path, ipv6) : new EndpointPaths(ipv4, path);
+    }
+
+    public Path get(Family family) {
+        return family == Family.IPV4 ? ipv4 : ipv6;
+    }
+
+    /**
+     * Family carrying the tunnel, or null before one was chosen
+     */
+    public Family selected() {
+        if (STATE_SELECTED.equals(ipv6.state)) {
+            return Family.IPV6;
+        }
+        return STATE_SELECTED.equals(ipv4.state) ? Family.IPV4 : null;
+    }
+
+    /**
+     * Record an RTT sample on the selected path
+     */
+    public EndpointPaths withSelectedRtt(long rttMicros) {
+        Family family = selected();
+        return family == null ? this : with(family, get(family).withRtt(rttMicros));
+    }
+
+    /**
+     * Fill in the selected path's connect time if the race did not measure it
+     */
+    public EndpointPaths withSelectedConnect(long connectMs) {
+        Family family = selected();
+        if (family == null || get(family).connectMs >= 0) {
+            return this;
+        }
+        return with(family, get(family).withConnect(connectMs));
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put(Family.IPV4.key, ipv4.toMap());
+        map.put(Family.IPV6.key, ipv6.toMap());
+        Family family = selected();
+        map.put("selected", family != null ? family.key : null);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,371 @@
+package com.falcon.securechat.vpn;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Happy Eyeballs (RFC 8305) for the outer UDP path
+ *
+ * The endpoint resolves to at most one IPv6 and one IPv4 address. Each
+ * attempt sends an authenticated keepalive over its own protected socket,
+ * with IPv4 started ATTEMPT_DELAY_MS behind IPv6, and the first
+ * authenticated answer picks the path. A slower family that was already
+ * probed keeps listening in the background, only to report its connect time.
+ *
+ * Probing uses the session ciphers, so a race must end before the tunnel
+ * thread starts.
+ */
+final class EndpointRacer {
+    private static final String TAG = "EndpointRacer";
+
+    static final long ATTEMPT_DELAY_MS = 250;
+    static final long PROBE_RETRY_MS = 1000;
+    static final long RACE_TIMEOUT_MS = 3000;
+
+    interface SocketOpener {
+        /**
+         * A protected, connected, non-blocking channel to the address
+         */
+        DatagramChannel open(InetSocketAddress address) throws IOException;
+    }
+
+    interface PathListener {
+        void onPath(EndpointPaths.Family family, EndpointPaths.Path path);
+    }
+
+    static final class Result {
+        final DatagramChannel channel;
+        final EndpointPaths.Family family;
+        final EndpointPaths paths;
+        // An authenticated answer already arrived on the selected path
+        final boolean answered;
+
+        Result(DatagramChannel channel, EndpointPaths.Family family, EndpointPaths paths, boolean answered) {
+            this.channel = channel;
+            this.family = family;
+            this.paths = paths;
+            this.answered = answered;
+        }
+    }
+
+    private static final class Attempt {
+        final EndpointPaths.Family family;
+        final InetSocketAddress address;
+        DatagramChannel channel;
+        boolean started;
+        boolean failed;
+        long lastProbeNanos;
+
+        Attempt(EndpointPaths.Family family, InetSocketAddress address) {
+            this.family = family;
+            this.address = address;
+        }
+
+        boolean alive() {
+            return started && !failed;
+        }
+    }
+
+    private final WireGuardConfig wireGuardConfig;
+    private final SocketOpener opener;
+    private final Executor background;
+    private final PathListener listener;
+
+    EndpointRacer(WireGuardConfig wireGuardConfig, SocketOpener opener, Executor background, PathListener listener) {
+        this.wireGuardConfig = wireGuardConfig;
+        this.opener = opener;
+        this.background = background;
+        this.listener = listener;
+    }
+
+    /**
+     * First IPv6 and first IPv4 address of the host, IPv6 first; blocks on DNS
+     * for names, returns immediately for literals
+     */
+    static List<InetSocketAddress> resolve(String host, int port) throws IOException {
+        InetAddress ipv6 = null;
+        InetAddress ipv4 = null;
+        for (InetAddress address : InetAddress.getAllByName(host)) {
+            if (address instanceof Inet6Address && ipv6 == null) {
+                ipv6 = address;
+            } else if (address instanceof Inet4Address && ipv4 == null) {
+                ipv4 = address;
+            }
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>(2);
+        if (ipv6 != null) {
+            addresses.add(new InetSocketAddress(ipv6, port));
+        }
+        if (ipv4 != null) {
+            addresses.add(new InetSocketAddress(ipv4, port));
+        }
+        if (addresses.isEmpty()) {
+            throw new IOException("No address for " + host);
+        }
+        return addresses;
+    }
+
+    /**
+     * Open the most preferred address that accepts a socket, without probing;
+     * for when the session ciphers already belong to the tunnel thread
+     */
+    static Result openPreferred(List<InetSocketAddress> addresses, SocketOpener opener) throws IOException {
+        EndpointPaths paths = EndpointPaths.EMPTY;
+        IOException lastError = null;
+        DatagramChannel channel = null;
+        EndpointPaths.Family selected = null;
+        for (InetSocketAddress address : addresses) {
+            EndpointPaths.Family family = familyOf(address);
+            String state = EndpointPaths.STATE_SKIPPED;
+            if (channel == null) {
+                try {
+                    channel = opener.open(address);
+                    selected = family;
+                    state = EndpointPaths.STATE_SELECTED;
+                } catch (IOException e) {
+                    lastError = e;
+                    state = EndpointPaths.STATE_FAILED;
+                }
+            }
+            paths = paths.with(family, new EndpointPaths.Path(hostString(address), state, -1, -1));
+        }
+        if (channel == null) {
+            throw lastError != null ? lastError : new IOException("No endpoint address");
+        }
+        return new Result(channel, selected, paths, false);
+    }
+
+    /**
+     * Race the addresses and return the selected path; the other sockets are
+     * closed, or handed to the background executor while still measuring
+     */
+    Result race(List<InetSocketAddress> addresses) throws IOException {
+        if (addresses.size() == 1) {
+            // Nothing to race; the tunnel thread's first keepalive finds out if it works
+            return openPreferred(addresses, opener);
+        }
+
+        Attempt[] attempts = new Attempt[addresses.size()];
+        for (int i = 0; i < attempts.length; i++) {
+            attempts[i] = new Attempt(familyOf(addresses.get(i)), addresses.get(i));
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        long deadline = start + RACE_TIMEOUT_MS * 1_000_000L;
+        Attempt winner = null;
+        long winnerRtt = -1;
+        long winnerConnect = -1;
+        byte[] reply = new byte[65536];
+
+        boolean finished = false;
+        Selector selector = Selector.open();
+        try {
+            while (winner == null) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Endpoint race interrupted");
+                }
+                long now = SystemClock.elapsedRealtimeNanos();
+                if (now >= deadline) {
+                    break;
+                }
+
+                // Start the next family when its turn comes or everything before it failed
+                long nextWake = deadline;
+                boolean earlierFailed = true;
+                for (int i = 0; i < attempts.length; i++) {
+                    Attempt attempt = attempts[i];
+                    if (!attempt.started) {
+                        long due = start + i * ATTEMPT_DELAY_MS * 1_000_000L;
+                        if (now >= due || earlierFailed) {
+                            begin(attempt, selector, now);
+                        } else {
+                            nextWake = Math.min(nextWake, due);
+                        }
+                    } else if (attempt.alive() && now - attempt.lastProbeNanos >= PROBE_RETRY_MS * 1_000_000L) {
+                        probe(attempt, now);
+                    }
+                    if (attempt.alive()) {
+                        nextWake = Math.min(nextWake, attempt.lastProbeNanos + PROBE_RETRY_MS * 1_000_000L);
+                    }
+                    earlierFailed &= attempt.failed;
+                }
+                if (earlierFailed) {
+                    break;
+                }
+
+                long waitMs = Math.max(1, (nextWake - now) / 1_000_000L);
+                if (selector.select(waitMs) == 0) {
+                    continue;
+                }
+                now = SystemClock.elapsedRealtimeNanos();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Attempt attempt = (Attempt) key.attachment();
+                    if (winner == null && answered(attempt, reply)) {
+                        winner = attempt;
+                        winnerRtt = (now - attempt.lastProbeNanos) / 1000;
+                        winnerConnect = (now - start) / 1_000_000L;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            finished = true;
+        } finally {
+            selector.close();
+            if (!finished) {
+                for (Attempt attempt : attempts) {
+                    closeQuietly(attempt.channel);
+                }
+            }
+        }
+
+        boolean answered = winner != null;
+        if (winner == null) {
+            // No answer in time: keep the most preferred live socket and let the handshake timer decide
+            for (Attempt attempt : attempts) {
+                if (attempt.alive()) {
+                    winner = attempt;
+                    break;
+                }
+            }
+            if (winner == null) {
+                throw new IOException("No usable endpoint address");
+            }
+        }
+
+        EndpointPaths paths = EndpointPaths.EMPTY;
+        for (Attempt attempt : attempts) {
+            String address = hostString(attempt.address);
+            EndpointPaths.Path path;
+            if (attempt == winner) {
+                path = new EndpointPaths.Path(address, EndpointPaths.STATE_SELECTED, winnerConnect, winnerRtt);
+            } else if (!attempt.started) {
+                path = new EndpointPaths.Path(address, EndpointPaths.STATE_SKIPPED, -1, -1);
+            } else if (attempt.failed) {
+                path = new EndpointPaths.Path(address, EndpointPaths.STATE_FAILED, -1, -1);
+            } else {
+                path = new EndpointPaths.Path(address, EndpointPaths.STATE_UNANSWERED, -1, -1);
+                if (answered) {
+                    measureLoser(attempt, start, deadline);
+                } else {
+                    closeQuietly(attempt.channel);
+                }
+            }
+            paths = paths.with(attempt.family, path);
+        }
+        Log.i(TAG, "Endpoint race: " + paths);
+        return new Result(winner.channel, winner.family, paths, answered);
+    }
+
+    private void begin(Attempt attempt, Selector selector, long now) {
+        attempt.started = true;
+        try {
+            attempt.channel = opener.open(attempt.address);
+            attempt.channel.register(selector, SelectionKey.OP_READ, attempt);
+            probe(attempt, now);
+        } catch (IOException e) {
+            // Typically ENETUNREACH: no route for this family on the current network
+            Log.d(TAG, attempt.family + " attempt failed: " + e.getMessage());
+            fail(attempt);
+        }
+    }
+
+    private void probe(Attempt attempt, long now) {
+        byte[] keepalive = wireGuardConfig.encryptPacket(new byte[0], 0);
+        try {
+            if (keepalive == null) {
+                throw new IOException("Cannot encrypt probe");
+            }
+            attempt.channel.write(ByteBuffer.wrap(keepalive));
+            attempt.lastProbeNanos = now;
+        } catch (IOException e) {
+            Log.d(TAG, attempt.family + " probe failed: " + e.getMessage());
+            fail(attempt);
+        }
+    }
+
+    /**
+     * Drain the socket; true once a datagram authenticates as coming from the peer
+     */
+    private boolean answered(Attempt attempt, byte[] reply) {
+        ByteBuffer buffer = ByteBuffer.wrap(reply);
+        try {
+            int length;
+            while ((length = attempt.channel.read(buffer)) > 0) {
+                if (wireGuardConfig.decryptPacket(reply, length) != null) {
+                    return true;
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // ICMP port unreachable surfaces here as ECONNREFUSED
+            Log.d(TAG, attempt.family + " receive failed: " + e.getMessage());
+            fail(attempt);
+        }
+        return false;
+    }
+
+    private void fail(Attempt attempt) {
+        attempt.failed = true;
+        closeQuietly(attempt.channel);
+    }
+
+    /**
+     * Wait, without decrypting, for the slower family's answer so its connect
+     * time can be reported; the tunnel thread owns the ciphers from here on
+     */
+    private void measureLoser(Attempt attempt, long start, long deadline) {
+        try {
+            background.execute(() -> {
+                try (Selector selector = Selector.open()) {
+                    attempt.channel.register(selector, SelectionKey.OP_READ);
+                    long waitMs = (deadline - SystemClock.elapsedRealtimeNanos()) / 1_000_000L;
+                    if (waitMs > 0 && selector.select(waitMs) > 0) {
+                        long now = SystemClock.elapsedRealtimeNanos();
+                        listener.onPath(attempt.family, new EndpointPaths.Path(hostString(attempt.address),
+                                EndpointPaths.STATE_SLOWER, (now - start) / 1_000_000L,
+                                (now - attempt.lastProbeNanos) / 1000));
+                    }
+                } catch (IOException e) {
+                    Log.d(TAG, attempt.family + " measurement failed: " + e.getMessage());
+                } finally {
+                    closeQuietly(attempt.channel);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            closeQuietly(attempt.channel);
+        }
+    }
+
+    static EndpointPaths.Family familyOf(InetSocketAddress address) {
+        return address.getAddress() instanceof Inet6Address ? EndpointPaths.Family.IPV6 : EndpointPaths.Family.IPV4;
+    }
+
+    private static String hostString(InetSocketAddress address) {
+        return address.getAddress().getHostAddress();
+    }
+
+    private static void closeQuietly(DatagramChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing race socket", e);
+        }
+    }
+}
@@ -6,42 +6,231 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
+import android.net.IpPrefix;
 import android.net.VpnService;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 import android.content.pm.ServiceInfo;
 import androidx.annotation.Nullable;
 
 import com.falcon.securechat.MainActivity;
+import com.falcon.securechat.vpn.io.PacketBatch;
+import com.falcon.securechat.vpn.io.TunnelIo;
+import com.falcon.securechat.vpn.packet.IpPacketView;
+import com.falcon.securechat.vpn.pacing.EgressPacer;
+import com.falcon.securechat.vpn.pacing.TcpDeliverySampler;
+import com.falcon.securechat.vpn.timer.TimingWheel;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class FalconVpnService extends VpnService {
     private static final String TAG = "FalconVpnService";
     private static final String CHANNEL_ID = "falcon_vpn_channel";
     private static final int NOTIFICATION_ID = 1337;
     
-    // WireGuard Configuration
-    private static final String VPN_SERVER_IP = "45.32.153.168"; // Replace with actual VPN server
-    private static final int VPN_SERVER_PORT = 51820;
-    private static final String VPN_LOCAL_IP = "10.8.0.2";
-    private static final String VPN_DNS = "8.8.8.8";
+    // Optional start intent extra with TunnelConfig overrides, see TunnelConfig.withOverrides()
+    public static final String EXTRA_CONFIG = "com.falcon.securechat.vpn.CONFIG";
     
-    private ParcelFileDescriptor vpnInterface;
+    private static final long TIMER_TICK_MS = 10;
+    private static final long KEEPALIVE_INTERVAL_MS = 25000;
+    private static final long HANDSHAKE_TIMEOUT_MS = 15000;
+    private static final long STATS_INTERVAL_MS = 5000;
+    private static final int IO_BATCH_SIZE = 32;
+    
+    // Both are swapped by the tunnel thread during hot reconfiguration
+    private volatile ParcelFileDescriptor vpnInterface;
     private ExecutorService executorService;
-    private DatagramChannel vpnChannel;
+    private volatile DatagramChannel vpnChannel;
     private WireGuardConfig wireGuardConfig;
-    private boolean isConnected = false;
+    private volatile boolean isConnected = false;
     private Thread tunnelThread;
+    private TimingWheel timers;
+    
+    // Running configuration; replaced by the tunnel thread once an update is applied
+    private volatile TunnelConfig config = TunnelConfig.DEFAULT;
+    private final Object reconfigureLock = new Object();
+    private final AtomicReference<TunnelUpdate> pendingUpdate = new AtomicReference<>();
+    
+    // Control plane: lock-free state snapshot plus listeners, exposed through ControlBinder
+    private final AtomicReference<VpnState> state = new AtomicReference<>(VpnState.DISCONNECTED);
+    private final CopyOnWriteArrayList<VpnState.Listener> stateListeners = new CopyOnWriteArrayList<>();
+    private final ControlBinder controlBinder = new ControlBinder();
+    
+    // Traffic counters, written only by the tunnel thread
+    private long packetsSent;
+    private long packetsReceived;
+    private long bytesSent;
+    private long bytesReceived;
+    private long handshakeTimeout = TimingWheel.INVALID_HANDLE;
+    private volatile boolean handshakeFailed;
+    private boolean firstDataPending;
+    
+    // Batched data-plane I/O, owned by the tunnel thread
+    private TunnelIo tunnelIo;
+    private PacketBatch tunReads;
+    private PacketBatch tunWrites;
+    private PacketBatch egress;
+    private PacketBatch ingress;
+    private final int[] egressPlainLengths = new int[IO_BATCH_SIZE];
+    // TCP packets, the only ones the pacer charges and whose delivery it observes
+    private final boolean[] egressPaced = new boolean[IO_BATCH_SIZE];
+    
+    // Paced egress: encrypted packets wait in the egress batch until the pacer releases them
+    private final EgressPacer pacer = new EgressPacer();
+    private final TcpDeliverySampler deliverySampler = new TcpDeliverySampler(pacer);
+    private final IpPacketView ingressView = new IpPacketView();
+    private int egressQueued;
+    private long keepaliveSentNanos;
+    
+    // Outer path: the race already got an answer, and the latest keepalive RTT on the selected family
+    private boolean pathAnswered;
+    private long pathRttMicros = -1;
+    
+    // elapsedRealtime() at the start of the current connect attempt, for ConnectTimings
+    private volatile long connectStartMillis;
+    
+    // Persistent keepalive so NAT mappings towards the server stay open while idle
+    private final TimingWheel.Callback keepaliveTimer = (handle, attachment) -> {
+        sendKeepalive();
+        timers.schedule(KEEPALIVE_INTERVAL_MS, this.keepaliveTimer, null);
+    };
+    
+    private final TimingWheel.Callback statsTimer = (handle, attachment) -> {
+        publishTraffic();
+        TunnelIo io = tunnelIo;
+        if (io != null) {
+            Log.d(TAG, String.format(java.util.Locale.US, "Tunnel I/O (%s): %.2f syscalls per packet",
+                    io.isNative() ? "native" : "Java", io.syscallsPerPacket()));
+        }
+        timers.schedule(STATS_INTERVAL_MS, this.statsTimer, null);
+    };
+    
+    // No authenticated reply from the server in time; tear the tunnel down
+    private final TimingWheel.Callback handshakeTimer = (handle, attachment) -> {
+        Log.e(TAG, "No response from VPN server within " + HANDSHAKE_TIMEOUT_MS + " ms");
+        handshakeFailed = true;
+        isConnected = false;
+    };
+    
+    /**
+     * Local binder handed to VpnManager for status queries and push updates
+     */
+    public class ControlBinder extends Binder {
+        public VpnState getState() {
+            return state.get();
+        }
+        
+        /**
+         * Register a listener; it immediately receives the current snapshot
+         */
+        public void addListener(VpnState.Listener listener) {
+            stateListeners.addIfAbsent(listener);
+            listener.onVpnStateChanged(state.get());
+        }
+        
+        public void removeListener(VpnState.Listener listener) {
+            stateListeners.remove(listener);
+        }
+        
+        public TunnelConfig getConfig() {
+            return config;
+        }
+        
+        /**
+         * Move the running tunnel to a new configuration without a cold restart;
+         * the callback runs on a service thread once the change took effect
+         */
+        public void reconfigure(TunnelConfig next, ReconfigureCallback callback) {
+            executorService.execute(() -> FalconVpnService.this.reconfigure(next, callback));
+        }
+    }
+    
+    public interface ReconfigureCallback {
+        void onReconfigured(ReconfigureResult result);
+    }
+    
+    public static class ReconfigureResult {
+        // No difference to the running config
+        public static final String ACTION_NONE = "none";
+        // Stored for the next connect because no tunnel is running
+        public static final String ACTION_SAVED = "saved";
+        // Applied by the tunnel thread, interface untouched
+        public static final String ACTION_DATA_PLANE = "dataPlane";
+        // New tun interface established before the old one was closed
+        public static final String ACTION_REBUILD = "rebuild";
+        
+        public final boolean success;
+        public final String action;
+        public final String message;
+        
+        public ReconfigureResult(boolean success, String action, String message) {
+            this.success = success;
+            this.action = action;
+            this.message = message;
+        }
+        
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("action", action);
+            map.put("message", message);
+            return map;
+        }
+    }
+    
+    /**
+     * Resources prepared off the data path, handed to the tunnel thread to swap in
+     */
+    private static final class TunnelUpdate {
+        final TunnelConfig config;
+        final ReconfigureCallback callback;
+        final String action;
+        DatagramChannel channel;
+        EndpointPaths paths;
+        ParcelFileDescriptor tunInterface;
+        
+        TunnelUpdate(TunnelConfig config, ReconfigureCallback callback, String action) {
+            this.config = config;
+            this.callback = callback;
+            this.action = action;
+        }
+        
+        void discard(String reason) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error closing unused tunnel socket", e);
+                }
+            }
+            if (tunInterface != null) {
+                try {
+                    tunInterface.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error closing unused VPN interface", e);
+                }
+            }
+            callback.onReconfigured(new ReconfigureResult(false, action, reason));
+        }
+    }
     
     public static class VpnConnectionResult {
         public final boolean success;
@@ -57,8 +246,12 @@ public class FalconVpnService extends VpnService {
     public void onCreate() {
         super.onCreate();
         createNotificationChannel();
-        executorService = Executors.newFixedThreadPool(2);
+        // Enough threads for the connect task plus its concurrent init and socket phases
+        executorService = Executors.newFixedThreadPool(4);
         wireGuardConfig = new WireGuardConfig();
+        
+        // Key generation, static-static DH and cipher warm-up run ahead of time, off the connect path
+        executorService.execute(wireGuardConfig::prepare);
         Log.i(TAG, "FalconVpnService created");
     }
     
@@ -72,6 +265,10 @@ public class FalconVpnService extends VpnService {
         }
         
         Log.i(TAG, "Starting Falcon VPN service...");
+        if (intent != null && intent.hasExtra(EXTRA_CONFIG)) {
+            config = readConfig(intent);
+        }
+        publishPhase(VpnState.Phase.CONNECTING, "Connecting...");
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
             startForeground(NOTIFICATION_ID, createNotification("Connecting...", false), ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
         } else {
@@ -82,14 +279,15 @@ public class FalconVpnService extends VpnService {
             VpnConnectionResult result = establishVpnConnection();
             
             if (result.success) {
-                Log.i(TAG, "VPN connection established successfully");
-                updateNotification("Connected securely", true);
+                // The tunnel counts as connected once the server answers, see onFirstResponse()
+                Log.i(TAG, "VPN interface established, waiting for server response");
                 isConnected = true;
                 startDataTransmission();
             } else {
                 Log.e(TAG, "Failed to establish VPN connection: " + result.message);
+                publishPhase(VpnState.Phase.FAILED, result.message);
                 updateNotification("Connection failed", false);
-                stopSelf();
+                stopVpnConnection();
             }
         });
         
@@ -97,50 +295,285 @@ public class FalconVpnService extends VpnService {
     }
     
     private VpnConnectionResult establishVpnConnection() {
-        try {
-            // Initialize WireGuard configuration
-            if (!wireGuardConfig.initialize()) {
-                return new VpnConnectionResult(false, "Failed to initialize WireGuard configuration");
+        connectStartMillis = SystemClock.elapsedRealtime();
+        TunnelConfig target = config;
+        
+        // Key setup and the outer socket do not depend on the tun interface, so
+        // both run alongside establish() instead of in front of it
+        Future<Boolean> initFuture = executorService.submit(() -> initializeConfig(target));
+        Future<EndpointRacer.Result> socketFuture = executorService.submit(() -> {
+            long start = SystemClock.elapsedRealtime();
+            List<InetSocketAddress> addresses = EndpointRacer.resolve(target.endpointHost, target.endpointPort);
+            // Race probes are authenticated, so only resolution runs ahead of key setup
+            if (!initFuture.get()) {
+                throw new IOException("WireGuard configuration not initialized");
             }
-            
-            // Create VPN interface
-            Builder builder = new Builder();
-            builder.setSession("Falcon VPN")
-                   .addAddress(VPN_LOCAL_IP, 24)
-                   .addDnsServer(VPN_DNS)
-                   .setMtu(1420)
-                   .setBlocking(false);
-            
-            // For local development, route most traffic through VPN but exclude local networks
-            // This is a simpler approach that works across all Android versions
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                // Route all traffic through VPN by default
-                builder.addRoute("0.0.0.0", 0);
-                
-                // Note: We're not using excludeRoute because it requires IpPrefix which has compatibility issues
-                // Instead, we'll handle local traffic at the application level in Flutter
-            } else {
-                // For older Android versions
-                builder.addRoute("0.0.0.0", 0);
+            EndpointRacer.Result path = new EndpointRacer(wireGuardConfig, this::openTunnelSocket, executorService,
+                    (family, result) -> updatePaths(paths -> paths.with(family, result)))
+                    .race(addresses);
+            publishTiming(ConnectTimings.Phase.SOCKET, SystemClock.elapsedRealtime() - start);
+            if (path.answered) {
+                publishTiming(ConnectTimings.Phase.FIRST_HANDSHAKE, SystemClock.elapsedRealtime() - connectStartMillis);
             }
-            
-            vpnInterface = builder.establish();
+            return path;
+        });
+        
+        try {
+            // Create VPN interface
+            long establishStart = SystemClock.elapsedRealtime();
+            vpnInterface = buildInterface(target).establish();
+            publishTiming(ConnectTimings.Phase.ESTABLISH, SystemClock.elapsedRealtime() - establishStart);
             
             if (vpnInterface == null) {
                 return new VpnConnectionResult(false, "Failed to establish VPN interface");
             }
             
-            // Create UDP channel for WireGuard communication
-            vpnChannel = DatagramChannel.open();
-            vpnChannel.connect(new InetSocketAddress(VPN_SERVER_IP, VPN_SERVER_PORT));
-            vpnChannel.configureBlocking(false);
+            if (!initFuture.get()) {
+                return new VpnConnectionResult(false, "Failed to initialize WireGuard configuration");
+            }
             
-            Log.i(TAG, "VPN interface and channel established");
+            EndpointRacer.Result path = socketFuture.get();
+            // Losing-family measurements may already have been merged in
+            updatePaths(paths -> mergePaths(path.paths, paths));
+            pathAnswered = path.answered;
+            pathRttMicros = path.paths.get(path.family).rttMicros;
+            vpnChannel = path.channel;
+            
+            Log.i(TAG, "VPN interface and channel established in "
+                    + (SystemClock.elapsedRealtime() - connectStartMillis) + " ms");
             return new VpnConnectionResult(true, "VPN connection established");
             
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error establishing VPN connection", e.getCause());
+            return new VpnConnectionResult(false, "Connection error: " + e.getCause().getMessage());
         } catch (Exception e) {
             Log.e(TAG, "Error establishing VPN connection", e);
             return new VpnConnectionResult(false, "Connection error: " + e.getMessage());
+        } finally {
+            // On failure the socket may still be opening; make sure it does not leak
+            if (vpnChannel == null) {
+                socketFuture.cancel(true);
+                closeQuietly(socketFuture);
+            }
+        }
+    }
+    
+    private boolean initializeConfig(TunnelConfig target) {
+        long start = SystemClock.elapsedRealtime();
+        byte[] peerKey = target.peerPublicKey();
+        boolean initialized = wireGuardConfig.initialize()
+                && (peerKey == null || wireGuardConfig.applyPeer(peerKey));
+        wireGuardConfig.setCompressionEnabled(target.compression);
+        publishTiming(ConnectTimings.Phase.INIT, SystemClock.elapsedRealtime() - start);
+        return initialized;
+    }
+    
+    /**
+     * Create the UDP channel for WireGuard communication, excluded from the tunnel
+     */
+    private DatagramChannel openTunnelSocket(InetSocketAddress endpoint) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            // Without this the outer socket would follow the 0.0.0.0/0 route back into the tun
+            if (!protect(channel.socket())) {
+                throw new IOException("Failed to protect tunnel socket");
+            }
+            channel.connect(endpoint);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+    
+    private Builder buildInterface(TunnelConfig target) throws UnknownHostException {
+        Builder builder = new Builder();
+        builder.setSession("Falcon VPN")
+               .addAddress(target.address, target.prefixLength)
+               .setMtu(target.mtu)
+               .setBlocking(false);
+        if (target.address6 != null) {
+            builder.addAddress(target.address6, target.prefixLength6);
+        }
+        for (String dns : target.dnsServers) {
+            builder.addDnsServer(dns);
+        }
+        
+        // Excluded destinations bypass the tun entirely rather than being routed into it
+        boolean nativeExclude = Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU;
+        for (String route : nativeExclude ? target.routes : target.routesWithoutExcluded()) {
+            int slash = route.indexOf('/');
+            builder.addRoute(route.substring(0, slash), Integer.parseInt(route.substring(slash + 1)));
+        }
+        if (nativeExclude) {
+            for (String route : target.excludedRoutes) {
+                int slash = route.indexOf('/');
+                // Validated literals, so no DNS lookup happens here
+                builder.excludeRoute(new IpPrefix(InetAddress.getByName(route.substring(0, slash)),
+                        Integer.parseInt(route.substring(slash + 1))));
+            }
+        }
+        return builder;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private TunnelConfig readConfig(Intent intent) {
+        try {
+            Map<String, Object> overrides = (Map<String, Object>) intent.getSerializableExtra(EXTRA_CONFIG);
+            return overrides != null ? TunnelConfig.DEFAULT.withOverrides(overrides) : TunnelConfig.DEFAULT;
+        } catch (IllegalArgumentException | ClassCastException e) {
+            Log.w(TAG, "Ignoring invalid tunnel configuration", e);
+            return config;
+        }
+    }
+    
+    /**
+     * Diff the new config against the running one. Data-plane changes are prepared
+     * here and swapped in by the tunnel thread; interface changes establish the
+     * new tun before the old one is closed, so flows inside the tunnel survive.
+     */
+    private void reconfigure(TunnelConfig next, ReconfigureCallback callback) {
+        synchronized (reconfigureLock) {
+            TunnelConfig current = config;
+            boolean rebuild = current.interfaceDiffers(next);
+            boolean endpointChanged = current.endpointDiffers(next);
+            boolean peerChanged = current.peerKeyDiffers(next);
+            
+            if (!rebuild && !endpointChanged && !peerChanged
+                    && !current.compressionDiffers(next) && !current.pacingDiffers(next)) {
+                callback.onReconfigured(new ReconfigureResult(true, ReconfigureResult.ACTION_NONE, "No changes"));
+                return;
+            }
+            
+            Thread tunnel = tunnelThread;
+            if (!isConnected || tunnel == null || !tunnel.isAlive()) {
+                if (state.get().phase == VpnState.Phase.CONNECTING) {
+                    callback.onReconfigured(new ReconfigureResult(false, ReconfigureResult.ACTION_NONE,
+                            "VPN is still connecting"));
+                    return;
+                }
+                config = next;
+                callback.onReconfigured(new ReconfigureResult(true, ReconfigureResult.ACTION_SAVED,
+                        "Configuration applies to the next connection"));
+                return;
+            }
+            
+            if (pendingUpdate.get() != null) {
+                callback.onReconfigured(new ReconfigureResult(false, ReconfigureResult.ACTION_NONE,
+                        "Another reconfiguration is in progress"));
+                return;
+            }
+            
+            TunnelUpdate update = new TunnelUpdate(next, callback,
+                    rebuild ? ReconfigureResult.ACTION_REBUILD : ReconfigureResult.ACTION_DATA_PLANE);
+            try {
+                byte[] peerKey = next.peerPublicKey();
+                if (peerChanged && peerKey != null && wireGuardConfig.precomputeStaticSecret(peerKey) == null) {
+                    update.discard("Peer public key is a low-order point");
+                    return;
+                }
+                if (endpointChanged) {
+                    // The tunnel thread owns the ciphers now, so no race: take the preferred family
+                    EndpointRacer.Result path = EndpointRacer.openPreferred(
+                            EndpointRacer.resolve(next.endpointHost, next.endpointPort), this::openTunnelSocket);
+                    update.channel = path.channel;
+                    update.paths = path.paths;
+                }
+                if (rebuild) {
+                    // Make before break: the old interface keeps carrying traffic until the swap
+                    update.tunInterface = buildInterface(next).establish();
+                    if (update.tunInterface == null) {
+                        update.discard("Failed to establish VPN interface");
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Failed to prepare reconfiguration", e);
+                update.discard("Reconfiguration failed: " + e.getMessage());
+                return;
+            }
+            
+            pendingUpdate.set(update);
+            
+            // The tunnel may have stopped meanwhile; take the update back unless it was already applied
+            if (!isConnected && pendingUpdate.compareAndSet(update, null)) {
+                update.discard("VPN disconnected");
+            }
+        }
+    }
+    
+    /**
+     * Swap in a prepared update; runs on the tunnel thread
+     *
+     * @return the replaced tun interface, to be closed once the new one is in use
+     */
+    private ParcelFileDescriptor applyUpdate(TunnelUpdate update) {
+        TunnelConfig current = config;
+        TunnelConfig next = update.config;
+        
+        byte[] peerKey = next.peerPublicKey();
+        if (current.peerKeyDiffers(next) && peerKey != null && !wireGuardConfig.applyPeer(peerKey)) {
+            update.discard("Failed to apply peer public key");
+            return null;
+        }
+        
+        if (update.channel != null) {
+            DatagramChannel oldChannel = vpnChannel;
+            vpnChannel = update.channel;
+            try {
+                oldChannel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing previous tunnel socket", e);
+            }
+        }
+        
+        ParcelFileDescriptor oldInterface = null;
+        if (update.tunInterface != null) {
+            oldInterface = vpnInterface;
+            vpnInterface = update.tunInterface;
+        }
+        
+        wireGuardConfig.setCompressionEnabled(next.compression);
+        pacer.setEnabled(next.pacing);
+        if (update.channel != null) {
+            // A new endpoint is a different path
+            pacer.reset();
+            deliverySampler.reset();
+            pathRttMicros = -1;
+            updatePaths(paths -> update.paths);
+        }
+        if (update.channel != null || current.peerKeyDiffers(next)) {
+            // Packets still waiting for the pacer belong to the old path or keys
+            egressQueued = 0;
+        }
+        config = next;
+        
+        // Let a new endpoint or peer see us right away
+        if (update.channel != null || current.peerKeyDiffers(next)) {
+            sendKeepalive();
+        }
+        
+        Log.i(TAG, "Tunnel reconfigured (" + update.action + ")");
+        update.callback.onReconfigured(new ReconfigureResult(true, update.action, "Configuration applied"));
+        return oldInterface;
+    }
+    
+    private void discardPendingUpdate(String reason) {
+        TunnelUpdate update = pendingUpdate.getAndSet(null);
+        if (update != null) {
+            update.discard(reason);
+        }
+    }
+    
+    private void closeQuietly(Future<EndpointRacer.Result> socketFuture) {
+        if (socketFuture.isCancelled()) {
+            return;
+        }
+        try {
+            socketFuture.get().channel.close();
+        } catch (Exception e) {
+            // Opening failed, so there is nothing to close
         }
     }
     
@@ -153,68 +586,303 @@ public class FalconVpnService extends VpnService {
         tunnelThread = new Thread(() -> {
             Log.i(TAG, "Starting VPN data transmission");
             
-            FileInputStream inputStream = new FileInputStream(vpnInterface.getFileDescriptor());
-            FileOutputStream outputStream = new FileOutputStream(vpnInterface.getFileDescriptor());
+            TunnelConfig activeConfig = config;
+            IpPacketView ipView = new IpPacketView();
             
-            ByteBuffer packet = ByteBuffer.allocate(32767);
+            // All tunnel timers are owned by this thread and driven from this loop
+            timers = new TimingWheel(TIMER_TICK_MS, 64);
+            timers.advance(SystemClock.elapsedRealtime());
+            timers.schedule(KEEPALIVE_INTERVAL_MS, keepaliveTimer, null);
+            timers.schedule(STATS_INTERVAL_MS, statsTimer, null);
+            packetsSent = packetsReceived = bytesSent = bytesReceived = 0;
+            wireGuardConfig.resetCompression();
+            pacer.reset();
+            pacer.setEnabled(activeConfig.pacing);
+            deliverySampler.reset();
+            egressQueued = 0;
+            handshakeFailed = false;
+            handshakeTimeout = timers.schedule(HANDSHAKE_TIMEOUT_MS, handshakeTimer, null);
+            firstDataPending = true;
             
             try {
+                openTunnelIo(activeConfig);
+                
+                // Probe the server right away instead of waiting for the first keepalive
+                sendKeepalive();
+                if (pathAnswered) {
+                    // The endpoint race already heard back from the server
+                    onFirstResponse();
+                }
+                
                 while (isConnected && !Thread.currentThread().isInterrupted()) {
-                    // Read from VPN interface
-                    packet.clear();
-                    int length = inputStream.read(packet.array());
+                    TunnelUpdate update = pendingUpdate.getAndSet(null);
+                    if (update != null) {
+                        ParcelFileDescriptor oldInterface = applyUpdate(update);
+                        if (oldInterface != null || update.channel != null) {
+                            openTunnelIo(config);
+                        }
+                        activeConfig = config;
+                        if (oldInterface != null) {
+                            // Packets still queued on the old interface are dropped
+                            try {
+                                oldInterface.close();
+                            } catch (IOException e) {
+                                Log.w(TAG, "Error closing previous VPN interface", e);
+                            }
+                        }
+                    }
                     
-                    if (length > 0) {
-                        // For split tunneling, we would check if this packet is for a local address
-                        // and handle it differently, but for simplicity we'll process all packets
-                        
-                        // Encrypt and send through WireGuard tunnel
-                        packet.limit(length);
-                        byte[] encryptedData = wireGuardConfig.encryptPacket(packet.array(), length);
+                    long now = SystemClock.elapsedRealtimeNanos();
+                    
+                    // Read a burst from the VPN interface and encrypt it behind any packets still waiting
+                    int space = IO_BATCH_SIZE - egressQueued;
+                    int read = space > 0 ? tunnelIo.readTun(tunReads, space) : 0;
+                    for (int i = 0; i < read; i++) {
+                        // Sealed straight from the read slot into the send slot
+                        ByteBuffer plain = tunReads.packet(i);
+                        if (!ipView.wrap(plain, 0, plain.limit())) {
+                            continue;
+                        }
+                        if (activeConfig.pacing) {
+                            deliverySampler.onEgress(ipView, now);
+                        }
                         
-                        if (encryptedData != null) {
-                            ByteBuffer encryptedPacket = ByteBuffer.wrap(encryptedData);
-                            vpnChannel.write(encryptedPacket);
+                        plain.limit(ipView.length());
+                        int sealedLength = wireGuardConfig.encryptPacket(plain, egress.slot(egressQueued));
+                        if (sealedLength >= 0) {
+                            egress.setLength(egressQueued, sealedLength);
+                            egressPaced[egressQueued] = ipView.protocol() == IpPacketView.PROTOCOL_TCP;
+                            egressPlainLengths[egressQueued++] = ipView.length();
                         }
                     }
                     
-                    // Read from WireGuard tunnel
-                    packet.clear();
-                    int receivedLength = vpnChannel.read(packet);
+                    // Send what the pacer releases as one batch; the rest waits for a later pass
+                    int sent = 0;
+                    if (egressQueued > 0) {
+                        int due = pacer.admit(egress, egressPaced, egressQueued, now);
+                        sent = due > 0 ? tunnelIo.send(egress, due) : 0;
+                        for (int i = 0; i < sent; i++) {
+                            bytesSent += egressPlainLengths[i];
+                        }
+                        packetsSent += sent;
+                        egressQueued -= sent;
+                        egress.shift(sent, egressQueued);
+                        System.arraycopy(egressPlainLengths, sent, egressPlainLengths, 0, egressQueued);
+                        System.arraycopy(egressPaced, sent, egressPaced, 0, egressQueued);
+                    }
                     
-                    if (receivedLength > 0) {
-                        // Decrypt and write to VPN interface
-                        byte[] decryptedData = wireGuardConfig.decryptPacket(packet.array(), receivedLength);
+                    // Receive a batch from the WireGuard tunnel, decrypt it and write it to the VPN interface
+                    int received = tunnelIo.receive(ingress);
+                    int writes = 0;
+                    for (int i = 0; i < received; i++) {
+                        // Opened straight from the receive slot into the next tun write slot
+                        ByteBuffer plain = tunWrites.slot(writes);
+                        int plainLength = wireGuardConfig.decryptPacket(ingress.packet(i), plain);
+                        if (plainLength < 0) {
+                            continue;
+                        }
+                        if (handshakeTimeout != TimingWheel.INVALID_HANDLE) {
+                            onFirstResponse();
+                        }
+                        packetsReceived++;
+                        bytesReceived += plainLength;
                         
-                        if (decryptedData != null) {
-                            outputStream.write(decryptedData);
+                        // Only the empty reply echoes the keepalive; data already in flight would
+                        // arrive earlier and make the sample too small
+                        if (keepaliveSentNanos != 0 && plainLength == 0) {
+                            pacer.onRttSample(now - keepaliveSentNanos, now);
+                            pathRttMicros = (now - keepaliveSentNanos) / 1000;
+                            keepaliveSentNanos = 0;
                         }
+                        if (plainLength > 0) {
+                            if (activeConfig.pacing && ingressView.wrap(plain, 0, plainLength)) {
+                                deliverySampler.onIngress(ingressView, now);
+                            }
+                            tunWrites.setLength(writes++, plainLength);
+                        }
+                    }
+                    if (writes > 0 && tunnelIo.writeTun(tunWrites, writes) > 0 && firstDataPending) {
+                        firstDataPending = false;
+                        publishTiming(ConnectTimings.Phase.FIRST_DATA,
+                                SystemClock.elapsedRealtime() - connectStartMillis);
                     }
                     
-                    // Small delay to prevent CPU spinning
-                    Thread.sleep(1);
+                    timers.advance(SystemClock.elapsedRealtime());
+                    
+                    // Back off only when the pass moved nothing, so busy bursts run at batch rate
+                    if (read == 0 && sent == 0 && received == 0) {
+                        Thread.sleep(1);
+                    }
                 }
             } catch (IOException | InterruptedException e) {
                 if (isConnected) {
                     Log.e(TAG, "Error in data transmission", e);
                 }
             } finally {
-                try {
-                    inputStream.close();
-                    outputStream.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "Error closing streams", e);
-                }
+                closeTunnelIo();
             }
             
             Log.i(TAG, "VPN data transmission stopped");
+            discardPendingUpdate("VPN disconnected");
+            publishTraffic();
+            
+            if (handshakeFailed) {
+                publishPhase(VpnState.Phase.FAILED, "No response from VPN server");
+                updateNotification("Connection failed", false);
+                // Cannot join ourselves; finish the teardown on the service executor
+                if (!executorService.isShutdown()) {
+                    executorService.execute(this::stopVpnConnection);
+                }
+            }
         });
         
         tunnelThread.start();
     }
     
+    /**
+     * (Re)open batched I/O on the current interface and channel, sizing the
+     * batches for the configured MTU; runs on the tunnel thread
+     */
+    private void openTunnelIo(TunnelConfig target) throws IOException {
+        closeTunnelIo();
+        tunnelIo = TunnelIo.open(vpnInterface, vpnChannel);
+        
+        if (tunReads == null || tunReads.slotSize() != target.mtu) {
+            int wireSize = target.mtu + WireGuardConfig.PACKET_OVERHEAD;
+            tunReads = new PacketBatch(IO_BATCH_SIZE, target.mtu);
+            tunWrites = new PacketBatch(IO_BATCH_SIZE, target.mtu);
+            egress = new PacketBatch(IO_BATCH_SIZE, wireSize);
+            ingress = new PacketBatch(IO_BATCH_SIZE, wireSize);
+            egressQueued = 0;
+        }
+        Log.i(TAG, "Tunnel I/O opened (" + (tunnelIo.isNative() ? "native" : "Java") + ")");
+    }
+    
+    private void closeTunnelIo() {
+        if (tunnelIo == null) {
+            return;
+        }
+        try {
+            tunnelIo.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing tunnel I/O", e);
+        }
+        tunnelIo = null;
+    }
+    
+    /**
+     * First authenticated packet from the server: the tunnel is passing traffic
+     */
+    private void onFirstResponse() {
+        timers.cancel(handshakeTimeout);
+        handshakeTimeout = TimingWheel.INVALID_HANDLE;
+        long elapsed = SystemClock.elapsedRealtime() - connectStartMillis;
+        if (state.get().timings.get(ConnectTimings.Phase.FIRST_HANDSHAKE) < 0) {
+            publishTiming(ConnectTimings.Phase.FIRST_HANDSHAKE, elapsed);
+        }
+        // Without a race the first answer is also the selected family's connect time
+        updatePaths(paths -> paths.withSelectedConnect(elapsed));
+        Log.i(TAG, "VPN connection established successfully, timings " + state.get().timings
+                + ", paths " + state.get().paths);
+        TunnelConfig current = config;
+        EndpointPaths.Family family = state.get().paths.selected();
+        publishPhase(VpnState.Phase.CONNECTED, "Connected to " + current.endpointHost + ":" + current.endpointPort
+                + (family == EndpointPaths.Family.IPV6 ? " over IPv6" : family == EndpointPaths.Family.IPV4 ? " over IPv4" : ""));
+        updateNotification("Connected securely", true);
+    }
+    
+    private void publishPhase(VpnState.Phase phase, String message) {
+        VpnState current;
+        VpnState updated;
+        do {
+            current = state.get();
+            updated = current.withPhase(phase, message);
+        } while (!state.compareAndSet(current, updated));
+        notifyStateListeners(updated);
+    }
+    
+    private void publishTraffic() {
+        VpnState current;
+        VpnState updated;
+        do {
+            current = state.get();
+            if (current.packetsSent == packetsSent && current.packetsReceived == packetsReceived) {
+                return;
+            }
+            updated = current.withTraffic(packetsSent, packetsReceived, bytesSent, bytesReceived)
+                    .withCompression(wireGuardConfig.getCompressionStats())
+                    .withPacing(pacer.stats(SystemClock.elapsedRealtimeNanos()))
+                    .withPaths(pathRttMicros >= 0 ? current.paths.withSelectedRtt(pathRttMicros) : current.paths);
+        } while (!state.compareAndSet(current, updated));
+        notifyStateListeners(updated);
+    }
+    
+    private void publishTiming(ConnectTimings.Phase phase, long millis) {
+        VpnState current;
+        VpnState updated;
+        do {
+            current = state.get();
+            updated = current.withTiming(phase, millis);
+        } while (!state.compareAndSet(current, updated));
+        notifyStateListeners(updated);
+    }
+    
+    private interface PathsUpdate {
+        EndpointPaths apply(EndpointPaths paths);
+    }
+    
+    private void updatePaths(PathsUpdate update) {
+        VpnState current;
+        VpnState updated;
+        do {
+            current = state.get();
+            updated = current.withPaths(update.apply(current.paths));
+        } while (!state.compareAndSet(current, updated));
+        notifyStateListeners(updated);
+    }
+    
+    /**
+     * The race result, keeping any slower-family answer that was reported first
+     */
+    private static EndpointPaths mergePaths(EndpointPaths race, EndpointPaths published) {
+        EndpointPaths merged = race;
+        for (EndpointPaths.Family family : EndpointPaths.Family.values()) {
+            if (EndpointPaths.STATE_SLOWER.equals(published.get(family).state)) {
+                merged = merged.with(family, published.get(family));
+            }
+        }
+        return merged;
+    }
+    
+    private void notifyStateListeners(VpnState snapshot) {
+        for (VpnState.Listener listener : stateListeners) {
+            listener.onVpnStateChanged(snapshot);
+        }
+    }
+    
+    private void sendKeepalive() {
+        // A keepalive is an authenticated data packet with an empty payload
+        byte[] keepalive = wireGuardConfig.encryptPacket(new byte[0], 0);
+        if (keepalive == null || vpnChannel == null) {
+            return;
+        }
+        try {
+            vpnChannel.write(ByteBuffer.wrap(keepalive));
+            // The server answers with an empty packet of its own, which times the outer RTT
+            keepaliveSentNanos = SystemClock.elapsedRealtimeNanos();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to send keepalive", e);
+        }
+    }
+    
     private void stopVpnConnection() {
         Log.i(TAG, "Stopping VPN connection");
+        // A failure reason stays visible until the next connect attempt
+        VpnState.Phase phase = state.get().phase;
+        boolean active = phase == VpnState.Phase.CONNECTING || phase == VpnState.Phase.CONNECTED;
+        if (active) {
+            publishPhase(VpnState.Phase.DISCONNECTING, "Disconnecting...");
+        }
         isConnected = false;
         
         if (tunnelThread != null) {
@@ -244,6 +912,10 @@ public class FalconVpnService extends VpnService {
             vpnInterface = null;
         }
         
+        if (active || phase == VpnState.Phase.DISCONNECTING) {
+            publishPhase(VpnState.Phase.DISCONNECTED, "Disconnected");
+        }
+        
         stopForeground(true);
         stopSelf();
     }
@@ -262,8 +934,12 @@ public class FalconVpnService extends VpnService {
     
     @Nullable
     @Override
-    public android.os.IBinder onBind(Intent intent) {
-        return null;
+    public IBinder onBind(Intent intent) {
+        // The system binds with SERVICE_INTERFACE; everything else is our own control plane
+        if (intent != null && SERVICE_INTERFACE.equals(intent.getAction())) {
+            return super.onBind(intent);
+        }
+        return controlBinder;
     }
     
     private Notification createNotification(String contentText, boolean connected) {
@@ -317,15 +993,11 @@ public class FalconVpnService extends VpnService {
     
     // Public method to check VPN status
     public boolean isVpnConnected() {
-        return isConnected && vpnInterface != null;
+        return state.get().phase == VpnState.Phase.CONNECTED;
     }
     
     // Public method to get connection statistics
     public String getConnectionStatus() {
-        if (isConnected) {
-            return "Connected to " + VPN_SERVER_IP + ":" + VPN_SERVER_PORT;
-        } else {
-            return "Disconnected";
-        }
+        return state.get().message;
     }
 }
\ No newline at end of file
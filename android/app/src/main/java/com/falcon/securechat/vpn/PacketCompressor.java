@@ -0,0 +1,279 @@
+package com.falcon.securechat.vpn;
+
+/**
+ * Per-packet LZ4 block compression for the tunnel payload
+ * Output is a 2-byte big-endian original length followed by one LZ4 block.
+ * Instances hold preallocated match tables and output buffers and are not
+ * thread-safe; each data-path thread keeps its own.
+ */
+final class PacketCompressor {
+
+    // Largest payload we accept, bounded by the 16-bit length prefix
+    static final int MAX_INPUT = 65535;
+    // Below this the token and length prefix eat most of any possible gain
+    static final int MIN_INPUT = 96;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_STRENGTH = 6;
+
+    // Entropy sample: random-looking data yields ~57 distinct values out of 64
+    private static final int SAMPLE_SIZE = 64;
+    private static final int SAMPLE_DISTINCT_LIMIT = 48;
+
+    // Give up once this many leading bytes produced no match at all
+    private static final int EARLY_ABORT_LITERALS = 512;
+
+    private final int[] table = new int[1 << HASH_LOG];
+    private final long[] seen = new long[4];
+    private final byte[] output = new byte[2 + MAX_INPUT + MAX_INPUT / 255 + 16];
+
+    /**
+     * Buffer holding the result of the last successful compress()
+     */
+    byte[] output() {
+        return output;
+    }
+
+    /**
+     * Compress src[offset, offset + length) into output()
+     *
+     * @return compressed size including the length prefix, or -1 when the data
+     *         looks incompressible or would not shrink
+     */
+    int compress(byte[] src, int offset, int length) {
+        if (length < MIN_INPUT || length > MAX_INPUT || looksRandom(src, offset, length)) {
+            return -1;
+        }
+        output[0] = (byte) (length >>> 8);
+        output[1] = (byte) length;
+        // Require a real saving, otherwise the flag and CPU are wasted
+        int written = compressBlock(src, offset, length, output, 2, 2 + length - 8);
+        return written < 0 ? -1 : 2 + written;
+    }
+
+    /**
+     * Expand a payload produced by compress()
+     *
+     * @return the original bytes, or null if the payload is malformed
+     */
+    static byte[] decompress(byte[] src, int offset, int length) {
+        if (length < 3) {
+            return null;
+        }
+        int originalLength = (src[offset] & 0xff) << 8 | (src[offset + 1] & 0xff);
+        byte[] dst = new byte[originalLength];
+        int ip = offset + 2;
+        int srcEnd = offset + length;
+        int op = 0;
+
+        while (ip < srcEnd) {
+            int token = src[ip++] & 0xff;
+
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        return null;
+                    }
+                    b = src[ip++] & 0xff;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > srcEnd - ip || literalLength > originalLength - op) {
+                return null;
+            }
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+
+            // The last sequence carries literals only
+            if (ip == srcEnd) {
+                break;
+            }
+
+            if (srcEnd - ip < 2) {
+                return null;
+            }
+            int distance = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+            ip += 2;
+            if (distance == 0 || distance > op) {
+                return null;
+            }
+
+            int matchLength = token & 0x0f;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        return null;
+                    }
+                    b = src[ip++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > originalLength - op) {
+                return null;
+            }
+
+            // Byte by byte: overlapping copies are how LZ4 encodes runs
+            int ref = op - distance;
+            for (int i = 0; i < matchLength; i++) {
+                dst[op + i] = dst[ref + i];
+            }
+            op += matchLength;
+        }
+
+        return op == originalLength ? dst : null;
+    }
+
+    /**
+     * Count distinct byte values over a strided sample; encrypted or already
+     * compressed payloads (TLS, media) come out close to uniform
+     */
+    private boolean looksRandom(byte[] src, int offset, int length) {
+        seen[0] = seen[1] = seen[2] = seen[3] = 0;
+        int stride = Math.max(1, length / SAMPLE_SIZE);
+        int distinct = 0;
+        int samples = 0;
+        for (int i = offset; i < offset + length && samples < SAMPLE_SIZE; i += stride, samples++) {
+            int v = src[i] & 0xff;
+            long bit = 1L << (v & 63);
+            if ((seen[v >>> 6] & bit) == 0) {
+                seen[v >>> 6] |= bit;
+                distinct++;
+            }
+        }
+        return samples == SAMPLE_SIZE && distinct > SAMPLE_DISTINCT_LIMIT;
+    }
+
+    /**
+     * Standard LZ4 fast block compression. Table entries left over from earlier
+     * packets are harmless: every candidate is range-checked and verified byte
+     * for byte, so the table never needs clearing.
+     *
+     * @return bytes written, or -1 if the output would reach dstLimit
+     */
+    private int compressBlock(byte[] src, int srcOff, int length, byte[] dst, int dstOff, int dstLimit) {
+        int srcEnd = srcOff + length;
+        int matchLimit = srcEnd - LAST_LITERALS;
+        int mfLimit = srcEnd - MF_LIMIT;
+        int anchor = srcOff;
+        int ip = srcOff;
+        int op = dstOff;
+
+        if (length >= MF_LIMIT + 1) {
+            table[hash(readInt(src, ip))] = ip;
+            ip++;
+
+            outer:
+            while (true) {
+                int ref;
+                int step = 1;
+                int searchCount = 1 << SKIP_STRENGTH;
+                while (true) {
+                    if (ip > mfLimit) {
+                        break outer;
+                    }
+                    int h = hash(readInt(src, ip));
+                    ref = table[h];
+                    table[h] = ip;
+                    if (ref >= srcOff && ref < ip && ip - ref <= MAX_DISTANCE
+                            && readInt(src, ref) == readInt(src, ip)) {
+                        break;
+                    }
+                    if (anchor == srcOff && ip - srcOff > EARLY_ABORT_LITERALS) {
+                        return -1;
+                    }
+                    ip += step;
+                    step = searchCount++ >>> SKIP_STRENGTH;
+                }
+
+                // Extend the match backwards over pending literals
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+
+                int literalLength = ip - anchor;
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                // token + literal length bytes + literals + offset + match length bytes
+                int needed = 1 + literalLength / 255 + 1 + literalLength + 2 + (matchLength - MIN_MATCH) / 255 + 1;
+                if (op + needed >= dstLimit) {
+                    return -1;
+                }
+
+                int tokenPos = op++;
+                int token;
+                if (literalLength >= 15) {
+                    token = 15 << 4;
+                    op = writeLength(dst, op, literalLength - 15);
+                } else {
+                    token = literalLength << 4;
+                }
+                System.arraycopy(src, anchor, dst, op, literalLength);
+                op += literalLength;
+
+                int distance = ip - ref;
+                dst[op++] = (byte) distance;
+                dst[op++] = (byte) (distance >>> 8);
+
+                int extra = matchLength - MIN_MATCH;
+                if (extra >= 15) {
+                    token |= 15;
+                    op = writeLength(dst, op, extra - 15);
+                } else {
+                    token |= extra;
+                }
+                dst[tokenPos] = (byte) token;
+
+                ip += matchLength;
+                anchor = ip;
+                if (ip > mfLimit) {
+                    break;
+                }
+                table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+        }
+
+        int literalLength = srcEnd - anchor;
+        if (op + 1 + literalLength / 255 + 1 + literalLength >= dstLimit) {
+            return -1;
+        }
+        if (literalLength >= 15) {
+            dst[op++] = (byte) (15 << 4);
+            op = writeLength(dst, op, literalLength - 15);
+        } else {
+            dst[op++] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(src, anchor, dst, op, literalLength);
+        op += literalLength;
+        return op - dstOff;
+    }
+
+    private static int writeLength(byte[] dst, int op, int remaining) {
+        while (remaining >= 255) {
+            dst[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xff) | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff) << 16 | (src[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
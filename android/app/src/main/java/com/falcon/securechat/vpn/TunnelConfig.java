@@ -0,0 +1,356 @@
+package com.falcon.securechat.vpn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable tunnel configuration
+ * Fields are split into interface-level settings, which are baked into the tun
+ * device by VpnService.Builder, and data-plane settings, which the tunnel
+ * thread can swap while the interface stays up
+ */
+public final class TunnelConfig {
+
+    // Route all traffic through the tunnel; local development traffic is handled at the application level in Flutter
+    public static final TunnelConfig DEFAULT = new TunnelConfig(
+            "10.8.0.2", 24, "fd08::2", 64, Collections.singletonList("8.8.8.8"), 1420,
+            Arrays.asList("0.0.0.0/0", "::/0"),
+            "45.32.153.168", 51820, // Replace with actual VPN server
+            null, Collections.<String>emptyList(), false, false);
+
+    // Interface level
+    public final String address;
+    public final int prefixLength;
+    // IPv6 tun address, or null for an IPv4-only interface
+    public final String address6;
+    public final int prefixLength6;
+    public final List<String> dnsServers;
+    public final int mtu;
+    public final List<String> routes;
+    // IPv4 destinations that bypass the VPN; carved out of routes when the tun is built
+    public final List<String> excludedRoutes;
+
+    // Data plane
+    // Literal or host name; with both A and AAAA records the two families race at connect
+    public final String endpointHost;
+    public final int endpointPort;
+    private final byte[] peerPublicKey;
+    // Off by default: advertising it sets header flags that peers without support reject
+    public final boolean compression;
+    // Spread outer datagrams at the estimated bottleneck rate instead of sending bursts
+    public final boolean pacing;
+
+    // excludedRoutes parsed for computing the complementary route set
+    private final int[] excludedNetworks;
+    private final int[] excludedMasks;
+
+    private TunnelConfig(String address, int prefixLength, String address6, int prefixLength6,
+                         List<String> dnsServers, int mtu,
+                         List<String> routes, String endpointHost, int endpointPort,
+                         byte[] peerPublicKey, List<String> excludedRoutes, boolean compression,
+                         boolean pacing) {
+        this.address = address;
+        this.prefixLength = prefixLength;
+        this.address6 = address6;
+        this.prefixLength6 = prefixLength6;
+        this.dnsServers = Collections.unmodifiableList(new ArrayList<>(dnsServers));
+        this.mtu = mtu;
+        this.routes = Collections.unmodifiableList(new ArrayList<>(routes));
+        this.endpointHost = endpointHost;
+        this.endpointPort = endpointPort;
+        this.peerPublicKey = peerPublicKey;
+        this.excludedRoutes = Collections.unmodifiableList(new ArrayList<>(excludedRoutes));
+        this.compression = compression;
+        this.pacing = pacing;
+
+        excludedNetworks = new int[excludedRoutes.size()];
+        excludedMasks = new int[excludedRoutes.size()];
+        for (int i = 0; i < excludedRoutes.size(); i++) {
+            String[] cidr = splitCidr(excludedRoutes.get(i));
+            int prefix = Integer.parseInt(cidr[1]);
+            excludedMasks[i] = prefix == 0 ? 0 : -1 << (32 - prefix);
+            excludedNetworks[i] = ipv4ToInt(cidr[0]) & excludedMasks[i];
+        }
+    }
+
+    /**
+     * Copy of this config with the keys present in the map replaced; absent
+     * keys keep their current value
+     *
+     * @throws IllegalArgumentException if a value is malformed
+     */
+    @SuppressWarnings("unchecked")
+    public TunnelConfig withOverrides(Map<String, Object> overrides) {
+        try {
+            String newAddress = overrides.containsKey("address") ? (String) overrides.get("address") : address;
+            int newPrefix = overrides.containsKey("prefixLength")
+                    ? ((Number) overrides.get("prefixLength")).intValue() : prefixLength;
+            // A null address6 turns IPv6 off
+            String newAddress6 = overrides.containsKey("address6") ? (String) overrides.get("address6") : address6;
+            int newPrefix6 = overrides.containsKey("prefixLength6")
+                    ? ((Number) overrides.get("prefixLength6")).intValue() : prefixLength6;
+            List<String> newDns = overrides.containsKey("dnsServers")
+                    ? (List<String>) overrides.get("dnsServers") : dnsServers;
+            int newMtu = overrides.containsKey("mtu") ? ((Number) overrides.get("mtu")).intValue() : mtu;
+            List<String> newRoutes = overrides.containsKey("routes")
+                    ? (List<String>) overrides.get("routes") : routes;
+            String newHost = overrides.containsKey("endpointHost")
+                    ? (String) overrides.get("endpointHost") : endpointHost;
+            int newPort = overrides.containsKey("endpointPort")
+                    ? ((Number) overrides.get("endpointPort")).intValue() : endpointPort;
+            // A null key keeps the current peer; there is no way back to the built-in demo peer
+            byte[] newPeerKey = overrides.get("peerPublicKey") != null
+                    ? (byte[]) overrides.get("peerPublicKey") : peerPublicKey;
+            List<String> newExcluded = overrides.containsKey("excludedRoutes")
+                    ? (List<String>) overrides.get("excludedRoutes") : excludedRoutes;
+            boolean newCompression = overrides.containsKey("compression")
+                    ? (Boolean) overrides.get("compression") : compression;
+            boolean newPacing = overrides.containsKey("pacing")
+                    ? (Boolean) overrides.get("pacing") : pacing;
+
+            validateIpv4(newAddress);
+            if (newPrefix < 0 || newPrefix > 32) {
+                throw new IllegalArgumentException("Invalid prefix length " + newPrefix);
+            }
+            if (newAddress6 != null) {
+                validateIpv6(newAddress6);
+                if (newPrefix6 < 0 || newPrefix6 > 128) {
+                    throw new IllegalArgumentException("Invalid IPv6 prefix length " + newPrefix6);
+                }
+            }
+            if (newMtu < 576 || newMtu > 65535) {
+                throw new IllegalArgumentException("Invalid MTU " + newMtu);
+            }
+            if (newHost == null || newHost.isEmpty() || newPort <= 0 || newPort > 65535) {
+                throw new IllegalArgumentException("Invalid endpoint " + newHost + ":" + newPort);
+            }
+            if (newPeerKey != null && newPeerKey.length != X25519.KEY_SIZE) {
+                throw new IllegalArgumentException("Peer public key must be " + X25519.KEY_SIZE + " bytes");
+            }
+            for (String dns : newDns) {
+                if (!isIpv4(dns)) {
+                    validateIpv6(dns);
+                }
+            }
+            for (String route : newRoutes) {
+                validateCidr(route);
+            }
+            for (String route : newExcluded) {
+                if (!validateCidr(route)) {
+                    throw new IllegalArgumentException("Excluded routes must be IPv4: " + route);
+                }
+            }
+
+            return new TunnelConfig(newAddress, newPrefix, newAddress6, newPrefix6, newDns, newMtu, newRoutes,
+                    newHost, newPort,
+                    newPeerKey != null ? newPeerKey.clone() : null, newExcluded, newCompression,
+                    newPacing);
+        } catch (ClassCastException | NullPointerException e) {
+            throw new IllegalArgumentException("Malformed tunnel configuration", e);
+        }
+    }
+
+    /**
+     * Whether moving to the other config needs a new tun interface
+     */
+    public boolean interfaceDiffers(TunnelConfig other) {
+        return !address.equals(other.address)
+                || prefixLength != other.prefixLength
+                || (address6 == null ? other.address6 != null : !address6.equals(other.address6))
+                || prefixLength6 != other.prefixLength6
+                || !dnsServers.equals(other.dnsServers)
+                || mtu != other.mtu
+                || !routes.equals(other.routes)
+                || !excludedRoutes.equals(other.excludedRoutes);
+    }
+
+    public boolean endpointDiffers(TunnelConfig other) {
+        return !endpointHost.equals(other.endpointHost) || endpointPort != other.endpointPort;
+    }
+
+    public boolean peerKeyDiffers(TunnelConfig other) {
+        return !Arrays.equals(peerPublicKey, other.peerPublicKey);
+    }
+
+    public boolean compressionDiffers(TunnelConfig other) {
+        return compression != other.compression;
+    }
+
+    public boolean pacingDiffers(TunnelConfig other) {
+        return pacing != other.pacing;
+    }
+
+    /**
+     * Peer public key, or null to use the built-in demo peer
+     */
+    public byte[] peerPublicKey() {
+        return peerPublicKey != null ? peerPublicKey.clone() : null;
+    }
+
+    /**
+     * Routes with every excluded prefix carved out of the IPv4 entries, for
+     * builders without excludeRoute. IPv6 routes are returned unchanged.
+     */
+    public List<String> routesWithoutExcluded() {
+        List<String> result = new ArrayList<>();
+        for (String route : routes) {
+            String[] cidr = splitCidr(route);
+            if (!isIpv4(cidr[0])) {
+                result.add(route);
+                continue;
+            }
+            int prefix = Integer.parseInt(cidr[1]);
+            int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+            subtractExcluded(ipv4ToInt(cidr[0]) & mask, prefix, 0, result);
+        }
+        return result;
+    }
+
+    /**
+     * Add the parts of network/prefix not covered by excluded entries from
+     * {@code index} on; a partially covered prefix is split into its halves
+     */
+    private void subtractExcluded(int network, int prefix, int index, List<String> out) {
+        for (int i = index; i < excludedNetworks.length; i++) {
+            int excludedPrefix = Integer.bitCount(excludedMasks[i]);
+            int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+            if (excludedPrefix <= prefix) {
+                if ((network & excludedMasks[i]) == excludedNetworks[i]) {
+                    // Entirely excluded
+                    return;
+                }
+            } else if ((excludedNetworks[i] & mask) == network) {
+                int half = 1 << (31 - prefix);
+                subtractExcluded(network, prefix + 1, i, out);
+                subtractExcluded(network | half, prefix + 1, i, out);
+                return;
+            }
+        }
+        out.add(intToIpv4(network) + "/" + prefix);
+    }
+
+    /**
+     * @return true for an IPv4 route, false for an IPv6 one
+     * @throws IllegalArgumentException if the route is neither
+     */
+    private static boolean validateCidr(String cidr) {
+        String[] parts = splitCidr(cidr);
+        boolean ipv4 = isIpv4(parts[0]);
+        if (!ipv4) {
+            validateIpv6(parts[0]);
+        }
+        int prefix;
+        try {
+            prefix = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid route " + cidr);
+        }
+        if (prefix < 0 || prefix > (ipv4 ? 32 : 128)) {
+            throw new IllegalArgumentException("Invalid route " + cidr);
+        }
+        return ipv4;
+    }
+
+    private static String[] splitCidr(String cidr) {
+        int slash = cidr.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Route must be in CIDR notation: " + cidr);
+        }
+        return new String[] { cidr.substring(0, slash), cidr.substring(slash + 1) };
+    }
+
+    private static void validateIpv4(String address) {
+        if (!isIpv4(address)) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + address);
+        }
+    }
+
+    private static boolean isIpv4(String address) {
+        String[] octets = address.split("\\.", -1);
+        if (octets.length != 4) {
+            return false;
+        }
+        for (String octet : octets) {
+            if (octet.isEmpty() || octet.length() > 3) {
+                return false;
+            }
+            for (int i = 0; i < octet.length(); i++) {
+                if (octet.charAt(i) < '0' || octet.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            if (Integer.parseInt(octet) > 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Literal IPv6 check, without the DNS lookup InetAddress would fall back to
+     */
+    private static void validateIpv6(String address) {
+        String body = address;
+        int lastColon = address.lastIndexOf(':');
+        if (lastColon >= 0 && address.indexOf('.', lastColon) >= 0) {
+            // Embedded IPv4 tail counts as two groups
+            if (!isIpv4(address.substring(lastColon + 1))) {
+                throw new IllegalArgumentException("Not an IPv6 address: " + address);
+            }
+            body = address.substring(0, lastColon + 1) + "0:0";
+        }
+
+        int compressed = body.indexOf("::");
+        int groups;
+        if (compressed < 0) {
+            groups = countGroups(body, address);
+            if (groups != 8) {
+                throw new IllegalArgumentException("Not an IPv6 address: " + address);
+            }
+        } else {
+            if (body.indexOf("::", compressed + 1) >= 0) {
+                throw new IllegalArgumentException("Not an IPv6 address: " + address);
+            }
+            groups = countGroups(body.substring(0, compressed), address)
+                    + countGroups(body.substring(compressed + 2), address);
+            if (groups > 7) {
+                throw new IllegalArgumentException("Not an IPv6 address: " + address);
+            }
+        }
+    }
+
+    private static int countGroups(String part, String address) {
+        if (part.isEmpty()) {
+            return 0;
+        }
+        String[] groups = part.split(":", -1);
+        for (String group : groups) {
+            if (group.isEmpty() || group.length() > 4) {
+                throw new IllegalArgumentException("Not an IPv6 address: " + address);
+            }
+            for (int i = 0; i < group.length(); i++) {
+                if (Character.digit(group.charAt(i), 16) < 0) {
+                    throw new IllegalArgumentException("Not an IPv6 address: " + address);
+                }
+            }
+        }
+        return groups.length;
+    }
+
+    private static String intToIpv4(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "."
+                + (address & 0xFF);
+    }
+
+    private static int ipv4ToInt(String address) {
+        validateIpv4(address);
+        int value = 0;
+        for (String octet : address.split("\\.")) {
+            value = value << 8 | Integer.parseInt(octet);
+        }
+        return value;
+    }
+}
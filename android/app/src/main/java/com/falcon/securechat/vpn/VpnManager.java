@@ -1,9 +1,14 @@
 package com.falcon.securechat.vpn;
 
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.net.VpnService;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -11,33 +16,79 @@ import androidx.annotation.NonNull;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.plugin.common.PluginRegistry;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * VPN Manager plugin for Flutter integration
  * Handles VPN connection requests from the Flutter app
  */
 public class VpnManager implements FlutterPlugin, MethodCallHandler, ActivityAware,
-        PluginRegistry.ActivityResultListener {
+        PluginRegistry.ActivityResultListener, EventChannel.StreamHandler, VpnState.Listener {
     
     private static final String TAG = "VpnManager";
     private static final String CHANNEL = "falcon/vpn_manager";
+    private static final String STATE_CHANNEL = "falcon/vpn_manager/state";
     private static final int VPN_REQUEST_CODE = 24;
     
     private MethodChannel channel;
+    private EventChannel stateChannel;
+    private EventChannel.EventSink stateSink;
     private Context context;
     private Activity activity;
     private Result pendingResult;
+    private boolean pendingResultIsConnect;
+    
+    // startVpn calls waiting for the tunnel to pass traffic or fail
+    private final List<Result> pendingConnects = new ArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private FalconVpnService.ControlBinder controlBinder;
+    private VpnState lastState = VpnState.DISCONNECTED;
+    
+    // Every override received through reconfigure, sent along with each start intent
+    private final HashMap<String, Object> configOverrides = new HashMap<>();
+    
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            Log.d(TAG, "Bound to FalconVpnService control plane");
+            controlBinder = (FalconVpnService.ControlBinder) service;
+            controlBinder.addListener(VpnManager.this);
+        }
+        
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            Log.w(TAG, "FalconVpnService control plane disconnected");
+            controlBinder = null;
+            // Also reported after a normal stopSelf(), once the service pushed its own
+            // DISCONNECTED; posted so states already queued on main are applied first
+            mainHandler.post(() -> {
+                if (lastState.phase == VpnState.Phase.CONNECTING || lastState.phase == VpnState.Phase.CONNECTED) {
+                    onVpnStateChanged(VpnState.DISCONNECTED.withPhase(VpnState.Phase.FAILED, "VPN service terminated"));
+                }
+            });
+        }
+    };
     
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
         channel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), CHANNEL);
         channel.setMethodCallHandler(this);
         context = flutterPluginBinding.getApplicationContext();
+        stateChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), STATE_CHANNEL);
+        stateChannel.setStreamHandler(this);
+        
+        // No BIND_AUTO_CREATE: we attach whenever the service runs, without keeping it alive
+        context.bindService(new Intent(context, FalconVpnService.class), serviceConnection, 0);
         Log.d(TAG, "VpnManager plugin attached to engine");
     }
     
@@ -59,6 +110,9 @@ public class VpnManager implements FlutterPlugin, MethodCallHandler, ActivityAwa
             case "requestVpnPermission":
                 requestVpnPermission(result);
                 break;
+            case "reconfigure":
+                reconfigure(call, result);
+                break;
             default:
                 result.notImplemented();
                 break;
@@ -83,12 +137,13 @@ public class VpnManager implements FlutterPlugin, MethodCallHandler, ActivityAwa
             // Permission not granted, request it
             Log.d(TAG, "VPN permission not granted, requesting...");
             pendingResult = result;
+            pendingResultIsConnect = true;
             activity.startActivityForResult(vpnIntent, VPN_REQUEST_CODE);
         } else {
             // Permission already granted, start VPN
             Log.d(TAG, "VPN permission already granted, starting service");
             startVpnService();
-            result.success("VPN service started");
+            awaitConnection(result);
         }
     }
     
@@ -105,13 +160,106 @@ public class VpnManager implements FlutterPlugin, MethodCallHandler, ActivityAwa
         result.success("VPN service stopped");
     }
     
+    /**
+     * Apply a partial tunnel configuration to the running tunnel, or keep it for the next start
+     */
+    private void reconfigure(MethodCall call, Result result) {
+        Map<String, Object> overrides = call.arguments();
+        if (overrides == null) {
+            result.error("INVALID_CONFIG", "Configuration map required", null);
+            return;
+        }
+        
+        FalconVpnService.ControlBinder binder = controlBinder;
+        TunnelConfig base = binder != null ? binder.getConfig() : TunnelConfig.DEFAULT.withOverrides(configOverrides);
+        TunnelConfig next;
+        try {
+            next = base.withOverrides(overrides);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_CONFIG", e.getMessage(), null);
+            return;
+        }
+        configOverrides.putAll(overrides);
+        
+        if (binder == null) {
+            Map<String, Object> saved = new HashMap<>();
+            saved.put("action", FalconVpnService.ReconfigureResult.ACTION_SAVED);
+            saved.put("message", "Configuration applies to the next connection");
+            result.success(saved);
+            return;
+        }
+        
+        binder.reconfigure(next, outcome -> mainHandler.post(() -> {
+            if (outcome.success) {
+                result.success(outcome.toMap());
+            } else {
+                result.error("RECONFIGURE_FAILED", outcome.message, outcome.toMap());
+            }
+        }));
+    }
+    
     /**
      * Get current VPN status
      */
     private void getVpnStatus(Result result) {
-        // For now, return a simple status
-        // In a real implementation, you would check the actual service status
-        result.success("disconnected");
+        result.success(currentState().status());
+    }
+    
+    private VpnState currentState() {
+        FalconVpnService.ControlBinder binder = controlBinder;
+        return binder != null ? binder.getState() : lastState;
+    }
+    
+    /**
+     * Complete result once the tunnel is passing traffic, or fail it with the reason
+     */
+    private void awaitConnection(Result result) {
+        if (currentState().phase == VpnState.Phase.CONNECTED) {
+            result.success("VPN connected");
+            return;
+        }
+        pendingConnects.add(result);
+    }
+    
+    @Override
+    public void onVpnStateChanged(VpnState state) {
+        // Called on service threads; all bookkeeping and Flutter calls happen on main
+        mainHandler.post(() -> {
+            VpnState.Phase previous = lastState.phase;
+            lastState = state;
+            if (stateSink != null) {
+                stateSink.success(state.toMap());
+            }
+            if (state.phase == VpnState.Phase.CONNECTED) {
+                for (Result result : pendingConnects) {
+                    result.success("VPN connected");
+                }
+                pendingConnects.clear();
+            } else if (state.phase == VpnState.Phase.FAILED) {
+                for (Result result : pendingConnects) {
+                    result.error("VPN_CONNECT_FAILED", state.message, null);
+                }
+                pendingConnects.clear();
+            } else if (state.phase == VpnState.Phase.DISCONNECTED
+                    && previous != VpnState.Phase.DISCONNECTED && previous != VpnState.Phase.FAILED) {
+                // Stopped mid-connect; a DISCONNECTED snapshot delivered on bind is not a transition
+                for (Result result : pendingConnects) {
+                    result.error("VPN_CONNECT_CANCELLED", "VPN was stopped before it connected", null);
+                }
+                pendingConnects.clear();
+            }
+        });
+    }
+    
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        stateSink = events;
+        events.success(currentState().toMap());
+    }
+    
+    @Override
+    public void onCancel(Object arguments) {
+        stateSink = null;
     }
     
     /**
@@ -135,6 +283,7 @@ public class VpnManager implements FlutterPlugin, MethodCallHandler, ActivityAwa
         
         if (vpnIntent != null) {
             pendingResult = result;
+            pendingResultIsConnect = false;
             activity.startActivityForResult(vpnIntent, VPN_REQUEST_CODE);
         } else {
             result.success(true);
@@ -146,6 +295,9 @@ public class VpnManager implements FlutterPlugin, MethodCallHandler, ActivityAwa
      */
     private void startVpnService() {
         Intent serviceIntent = new Intent(context, FalconVpnService.class);
+        if (!configOverrides.isEmpty()) {
+            serviceIntent.putExtra(FalconVpnService.EXTRA_CONFIG, new HashMap<>(configOverrides));
+        }
         context.startForegroundService(serviceIntent);
         Log.d(TAG, "VPN service intent sent");
     }
@@ -159,7 +311,11 @@ public class VpnManager implements FlutterPlugin, MethodCallHandler, ActivityAwa
                 // Permission granted, start VPN
                 Log.i(TAG, "VPN permission granted");
                 startVpnService();
-                pendingResult.success("VPN service started");
+                if (pendingResultIsConnect) {
+                    awaitConnection(pendingResult);
+                } else {
+                    pendingResult.success("VPN service started");
+                }
             } else {
                 // Permission denied
                 Log.w(TAG, "VPN permission denied");
@@ -176,6 +332,12 @@ public class VpnManager implements FlutterPlugin, MethodCallHandler, ActivityAwa
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         channel.setMethodCallHandler(null);
+        stateChannel.setStreamHandler(null);
+        if (controlBinder != null) {
+            controlBinder.removeListener(this);
+            controlBinder = null;
+        }
+        context.unbindService(serviceConnection);
         Log.d(TAG, "VpnManager plugin detached from engine");
     }
     
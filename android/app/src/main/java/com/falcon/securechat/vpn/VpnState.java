@@ -0,0 +1,122 @@
+package com.falcon.securechat.vpn;
+
+import com.falcon.securechat.vpn.pacing.PacingStats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the tunnel state
+ * The service swaps whole snapshots atomically, so readers on any thread get a
+ * consistent view without locking
+ */
+public final class VpnState {
+
+    public enum Phase {
+        DISCONNECTED,
+        CONNECTING,
+        CONNECTED,
+        DISCONNECTING,
+        FAILED
+    }
+
+    /**
+     * Receives every published snapshot; called on the publishing thread
+     */
+    public interface Listener {
+        void onVpnStateChanged(VpnState state);
+    }
+
+    public static final VpnState DISCONNECTED = new VpnState(Phase.DISCONNECTED, "Disconnected",
+            System.currentTimeMillis(), 0, 0, 0, 0, ConnectTimings.EMPTY, CompressionStats.EMPTY,
+            PacingStats.EMPTY, EndpointPaths.EMPTY);
+
+    public final Phase phase;
+    public final String message;
+    public final long sinceMillis;
+    public final long packetsSent;
+    public final long packetsReceived;
+    public final long bytesSent;
+    public final long bytesReceived;
+    public final ConnectTimings timings;
+    public final CompressionStats compression;
+    public final PacingStats pacing;
+    public final EndpointPaths paths;
+
+    private VpnState(Phase phase, String message, long sinceMillis, long packetsSent,
+                     long packetsReceived, long bytesSent, long bytesReceived, ConnectTimings timings,
+                     CompressionStats compression, PacingStats pacing, EndpointPaths paths) {
+        this.phase = phase;
+        this.message = message;
+        this.sinceMillis = sinceMillis;
+        this.packetsSent = packetsSent;
+        this.packetsReceived = packetsReceived;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.timings = timings;
+        this.compression = compression;
+        this.pacing = pacing;
+        this.paths = paths;
+    }
+
+    /**
+     * Transition to a new phase; counters and timings reset when a new connection starts
+     */
+    public VpnState withPhase(Phase newPhase, String newMessage) {
+        boolean reset = newPhase == Phase.CONNECTING;
+        return new VpnState(newPhase, newMessage, System.currentTimeMillis(),
+                reset ? 0 : packetsSent, reset ? 0 : packetsReceived,
+                reset ? 0 : bytesSent, reset ? 0 : bytesReceived,
+                reset ? ConnectTimings.EMPTY : timings, reset ? CompressionStats.EMPTY : compression,
+                reset ? PacingStats.EMPTY : pacing, reset ? EndpointPaths.EMPTY : paths);
+    }
+
+    public VpnState withTraffic(long newPacketsSent, long newPacketsReceived, long newBytesSent, long newBytesReceived) {
+        return new VpnState(phase, message, sinceMillis, newPacketsSent, newPacketsReceived,
+                newBytesSent, newBytesReceived, timings, compression, pacing, paths);
+    }
+
+    public VpnState withCompression(CompressionStats newCompression) {
+        return new VpnState(phase, message, sinceMillis, packetsSent, packetsReceived,
+                bytesSent, bytesReceived, timings, newCompression, pacing, paths);
+    }
+
+    public VpnState withPacing(PacingStats newPacing) {
+        return new VpnState(phase, message, sinceMillis, packetsSent, packetsReceived,
+                bytesSent, bytesReceived, timings, compression, newPacing, paths);
+    }
+
+    public VpnState withPaths(EndpointPaths newPaths) {
+        return new VpnState(phase, message, sinceMillis, packetsSent, packetsReceived,
+                bytesSent, bytesReceived, timings, compression, pacing, newPaths);
+    }
+
+    public VpnState withTiming(ConnectTimings.Phase timingPhase, long millis) {
+        return new VpnState(phase, message, sinceMillis, packetsSent, packetsReceived,
+                bytesSent, bytesReceived, timings.with(timingPhase, millis), compression,
+                pacing, paths);
+    }
+
+    /**
+     * Lower-case phase name, as reported by getVpnStatus
+     */
+    public String status() {
+        return phase.name().toLowerCase(java.util.Locale.US);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("status", status());
+        map.put("message", message);
+        map.put("sinceMillis", sinceMillis);
+        map.put("packetsSent", packetsSent);
+        map.put("packetsReceived", packetsReceived);
+        map.put("bytesSent", bytesSent);
+        map.put("bytesReceived", bytesReceived);
+        map.put("timings", timings.toMap());
+        map.put("compression", compression.toMap());
+        map.put("pacing", pacing.toMap());
+        map.put("paths", paths.toMap());
+        return map;
+    }
+}
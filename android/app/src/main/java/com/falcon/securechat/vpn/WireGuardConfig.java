@@ -1,9 +1,12 @@
 package com.falcon.securechat.vpn;
 
+import android.os.SystemClock;
 import android.util.Log;
 import java.security.SecureRandom;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import javax.crypto.Cipher;
 import javax.crypto.spec.ChaCha20ParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -25,6 +28,15 @@ public class WireGuardConfig {
     private static final int HANDSHAKE_RESPONSE = 2;
     private static final int PACKET_DATA = 4;
     
+    // Bytes a data packet adds on the wire: header, nonce and tag
+    public static final int PACKET_OVERHEAD = 4 + NONCE_SIZE + MAC_SIZE;
+    
+    // Flags in the three reserved header bytes above the packet type. A header
+    // carrying any flag is authenticated as AAD; flagless packets keep the
+    // original format so peers without compression support are unaffected.
+    private static final int FLAG_ACCEPTS_COMPRESSION = 0x100;
+    private static final int FLAG_COMPRESSED = 0x200;
+    
     // Cryptographic keys (in production, these would be generated and exchanged securely)
     private byte[] privateKey;
     private byte[] publicKey;
@@ -33,6 +45,31 @@ public class WireGuardConfig {
     private byte[] sendingKey;
     private byte[] receivingKey;
     
+    // Static-static DH results per peer public key, valid for our current static key pair
+    private final Map<ByteBuffer, byte[]> staticSecrets = new HashMap<>();
+    
+    // Cipher instances for the data path, owned by the tunnel thread and created during prepare()
+    private Cipher encryptCipher;
+    private Cipher decryptCipher;
+    // Heap copies for the buffer data path, only needed around the array-based compressor
+    private byte[] compressInput = new byte[0];
+    private byte[] decompressInput = new byte[0];
+    
+    // Compression: state per data-path thread, counters written by the tunnel thread only
+    private final ThreadLocal<PacketCompressor> compressors = new ThreadLocal<PacketCompressor>() {
+        @Override
+        protected PacketCompressor initialValue() {
+            return new PacketCompressor();
+        }
+    };
+    private volatile boolean compressionEnabled;
+    private volatile boolean peerAcceptsCompression;
+    private long packetsCompressed;
+    private long packetsSkipped;
+    private long compressionBytesIn;
+    private long compressionBytesSaved;
+    private long compressionNanos;
+    
     private SecureRandom secureRandom;
     private long sendingCounter = 0;
     private long receivingCounter = 0;
@@ -42,25 +79,105 @@ public class WireGuardConfig {
     }
     
     /**
-     * Initialize the WireGuard configuration
-     * In a real implementation, this would involve a proper handshake
+     * Generate our key pair and precompute the static-static secret for the
+     * configured peer ahead of connect. Safe to call from a background thread;
+     * later calls return immediately once the work is done.
      */
-    public boolean initialize() {
-        try {
+    public synchronized void prepare() {
+        long start = SystemClock.elapsedRealtime();
+        
+        if (privateKey == null) {
             // Generate our key pair (in production, this would be persistent)
             generateKeyPair();
-            
+        }
+        
+        if (peerPublicKey == null) {
             // For demo purposes, use hardcoded peer public key
-            // In production, this would be obtained through handshake
+            // In production, this would come from the peer configuration
             peerPublicKey = generateDemoKey("peer_public_key_seed");
+        }
+        
+        precomputeStaticSecret(peerPublicKey);
+        warmUpCiphers();
+        Log.d(TAG, "Handshake precomputation took " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+    
+    /**
+     * Compute and cache the static-static X25519 secret with a peer
+     */
+    public synchronized byte[] precomputeStaticSecret(byte[] peerKey) {
+        if (privateKey == null) {
+            generateKeyPair();
+        }
+        ByteBuffer cacheKey = ByteBuffer.wrap(Arrays.copyOf(peerKey, peerKey.length));
+        byte[] secret = staticSecrets.get(cacheKey);
+        if (secret == null) {
+            secret = X25519.sharedSecret(privateKey, peerKey);
+            if (secret != null) {
+                staticSecrets.put(cacheKey, secret);
+            }
+        }
+        return secret;
+    }
+    
+    /**
+     * Resolve the cipher and MAC providers and run one operation through each so
+     * that provider lookup and class loading do not land on the first packet
+     */
+    private void warmUpCiphers() {
+        if (encryptCipher != null && decryptCipher != null) {
+            return;
+        }
+        try {
+            byte[] key = new byte[KEY_SIZE];
+            byte[] nonce = new byte[NONCE_SIZE];
+            secureRandom.nextBytes(key);
+            secureRandom.nextBytes(nonce);
             
-            // Compute shared secret (simplified ECDH)
-            sharedSecret = computeSharedSecret(privateKey, peerPublicKey);
+            Cipher encrypt = Cipher.getInstance("AES/GCM/NoPadding");
+            Cipher decrypt = Cipher.getInstance("AES/GCM/NoPadding");
+            SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+            encrypt.init(Cipher.ENCRYPT_MODE, keySpec, new javax.crypto.spec.GCMParameterSpec(128, nonce));
+            byte[] sealed = encrypt.doFinal(new byte[64]);
+            decrypt.init(Cipher.DECRYPT_MODE, keySpec, new javax.crypto.spec.GCMParameterSpec(128, nonce));
+            decrypt.doFinal(sealed);
+            
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            mac.doFinal(nonce);
+            
+            encryptCipher = encrypt;
+            decryptCipher = decrypt;
+        } catch (Exception e) {
+            // Not fatal; the data path falls back to creating ciphers on demand
+            Log.w(TAG, "Cipher warm-up failed", e);
+        }
+    }
+    
+    /**
+     * Initialize the WireGuard configuration
+     * In a real implementation, this would involve a proper handshake
+     */
+    public synchronized boolean initialize() {
+        try {
+            long start = SystemClock.elapsedRealtime();
+            
+            // No-op when the service already prepared keys in the background
+            prepare();
+            
+            // Static-static X25519 secret, served from the cache on the connect path
+            sharedSecret = precomputeStaticSecret(peerPublicKey);
+            if (sharedSecret == null) {
+                Log.e(TAG, "Peer public key is a low-order point");
+                return false;
+            }
             
             // Derive session keys
             deriveSessionKeys();
             
-            Log.i(TAG, "WireGuard configuration initialized successfully");
+            Log.i(TAG, "WireGuard configuration initialized successfully in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms ("
+                    + (X25519.isPlatformAccelerated() ? "platform" : "fallback") + " X25519)");
             return true;
             
         } catch (Exception e) {
@@ -69,23 +186,70 @@ public class WireGuardConfig {
         }
     }
     
+    /**
+     * Switch the running session to a different peer. The static-static secret
+     * should already be cached through precomputeStaticSecret() so the tunnel
+     * thread only derives session keys here.
+     *
+     * @return false if the peer key is a low-order point
+     */
+    public synchronized boolean applyPeer(byte[] peerKey) {
+        byte[] secret = precomputeStaticSecret(peerKey);
+        if (secret == null) {
+            Log.e(TAG, "Peer public key is a low-order point");
+            return false;
+        }
+        peerPublicKey = Arrays.copyOf(peerKey, peerKey.length);
+        sharedSecret = secret;
+        // A different peer has to advertise compression support itself
+        peerAcceptsCompression = false;
+        // Counters keep running: session keys are derived deterministically from the
+        // static secret, so switching back to an earlier peer must not repeat nonces
+        deriveSessionKeys();
+        return true;
+    }
+    
     /**
      * Encrypt a packet for transmission
      */
     public byte[] encryptPacket(byte[] plaintext, int length) {
         try {
+            int header = PACKET_DATA;
+            byte[] payload = plaintext;
+            int payloadLength = length;
+            
+            if (compressionEnabled) {
+                header |= FLAG_ACCEPTS_COMPRESSION;
+                if (peerAcceptsCompression && length >= PacketCompressor.MIN_INPUT) {
+                    PacketCompressor compressor = compressors.get();
+                    long start = System.nanoTime();
+                    int compressedLength = compressor.compress(plaintext, 0, length);
+                    compressionNanos += System.nanoTime() - start;
+                    compressionBytesIn += length;
+                    if (compressedLength > 0) {
+                        header |= FLAG_COMPRESSED;
+                        payload = compressor.output();
+                        payloadLength = compressedLength;
+                        packetsCompressed++;
+                        compressionBytesSaved += length - compressedLength;
+                    } else {
+                        packetsSkipped++;
+                    }
+                }
+            }
+            
             // Create WireGuard data packet header
-            ByteBuffer packet = ByteBuffer.allocate(4 + NONCE_SIZE + length + MAC_SIZE);
+            ByteBuffer packet = ByteBuffer.allocate(4 + NONCE_SIZE + payloadLength + MAC_SIZE);
             
-            // Packet type
-            packet.putInt(PACKET_DATA);
+            // Packet type and flags
+            packet.putInt(header);
             
             // Generate nonce
             byte[] nonce = generateNonce();
             packet.put(nonce);
             
             // Encrypt the payload using ChaCha20-Poly1305
-            byte[] encrypted = encryptChaCha20Poly1305(plaintext, 0, length, sendingKey, nonce);
+            byte[] encrypted = encryptChaCha20Poly1305(payload, 0, payloadLength, sendingKey, nonce, header);
             packet.put(encrypted);
             
             sendingCounter++;
@@ -104,8 +268,9 @@ public class WireGuardConfig {
         try {
             ByteBuffer packet = ByteBuffer.wrap(ciphertext, 0, length);
             
-            // Read packet type
-            int packetType = packet.getInt();
+            // Read packet type and flags
+            int header = packet.getInt();
+            int packetType = header & 0xff;
             if (packetType != PACKET_DATA) {
                 Log.w(TAG, "Received non-data packet: " + packetType);
                 return null;
@@ -120,10 +285,22 @@ public class WireGuardConfig {
             byte[] encrypted = new byte[encryptedLength];
             packet.get(encrypted);
             
-            byte[] decrypted = decryptChaCha20Poly1305(encrypted, receivingKey, nonce);
+            byte[] decrypted = decryptChaCha20Poly1305(encrypted, receivingKey, nonce, header);
             
-            if (decrypted != null) {
-                receivingCounter++;
+            if (decrypted == null) {
+                return null;
+            }
+            receivingCounter++;
+            
+            // The header is authenticated, so the peer's advertisement can be trusted
+            peerAcceptsCompression = (header & FLAG_ACCEPTS_COMPRESSION) != 0;
+            if ((header & FLAG_COMPRESSED) != 0) {
+                long start = System.nanoTime();
+                decrypted = PacketCompressor.decompress(decrypted, 0, decrypted.length);
+                compressionNanos += System.nanoTime() - start;
+                if (decrypted == null) {
+                    Log.w(TAG, "Dropping packet with malformed compressed payload");
+                }
             }
             
             return decrypted;
@@ -135,43 +312,127 @@ public class WireGuardConfig {
     }
     
     /**
-     * Generate a key pair for this instance
+     * Encrypt the remaining bytes of plaintext into out at its position, so
+     * the data plane can seal straight from a tun read slot into a send slot.
+     * Both buffers' positions advance.
+     *
+     * @return the sealed length, or -1 if encryption failed or out is too small
      */
-    private void generateKeyPair() {
-        privateKey = new byte[KEY_SIZE];
-        secureRandom.nextBytes(privateKey);
-        
-        // In a real implementation, this would use Curve25519
-        // For demo purposes, we'll use a simplified approach
-        publicKey = generatePublicKey(privateKey);
-        
-        Log.d(TAG, "Generated new key pair");
+    public int encryptPacket(ByteBuffer plaintext, ByteBuffer out) {
+        try {
+            int header = PACKET_DATA;
+            ByteBuffer payload = plaintext;
+            
+            if (compressionEnabled) {
+                header |= FLAG_ACCEPTS_COMPRESSION;
+                int length = plaintext.remaining();
+                if (peerAcceptsCompression && length >= PacketCompressor.MIN_INPUT) {
+                    // The compressor works on heap arrays
+                    if (compressInput.length < length) {
+                        compressInput = new byte[length];
+                    }
+                    plaintext.mark();
+                    plaintext.get(compressInput, 0, length);
+                    plaintext.reset();
+                    PacketCompressor compressor = compressors.get();
+                    long start = System.nanoTime();
+                    int compressedLength = compressor.compress(compressInput, 0, length);
+                    compressionNanos += System.nanoTime() - start;
+                    compressionBytesIn += length;
+                    if (compressedLength > 0) {
+                        header |= FLAG_COMPRESSED;
+                        payload = ByteBuffer.wrap(compressor.output(), 0, compressedLength);
+                        packetsCompressed++;
+                        compressionBytesSaved += length - compressedLength;
+                    } else {
+                        packetsSkipped++;
+                    }
+                }
+            }
+            
+            int start = out.position();
+            out.putInt(header);
+            byte[] nonce = generateNonce();
+            out.put(nonce);
+            Cipher cipher = initDataCipher(Cipher.ENCRYPT_MODE, sendingKey, nonce, header);
+            cipher.doFinal(payload, out);
+            // Skip what the cipher did not consume when the payload was compressed
+            plaintext.position(plaintext.limit());
+            
+            sendingCounter++;
+            return out.position() - start;
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to encrypt packet", e);
+            return -1;
+        }
     }
     
     /**
-     * Generate public key from private key (simplified)
+     * Decrypt the remaining bytes of a received packet into out at its
+     * position, so the data plane can open straight from a receive slot into
+     * a tun write slot. Both buffers' positions advance.
+     *
+     * @return the plaintext length, or -1 if the packet is not valid data or
+     *         does not fit out
      */
-    private byte[] generatePublicKey(byte[] privateKey) {
+    public int decryptPacket(ByteBuffer packet, ByteBuffer out) {
         try {
-            // Simplified public key generation (not real Curve25519)
-            byte[] publicKey = new byte[KEY_SIZE];
-            
-            // Use HMAC-SHA256 as a deterministic function
-            Mac mac = Mac.getInstance("HmacSHA256");
-            SecretKeySpec keySpec = new SecretKeySpec(privateKey, "HmacSHA256");
-            mac.init(keySpec);
+            int header = packet.getInt();
+            int packetType = header & 0xff;
+            if (packetType != PACKET_DATA) {
+                Log.w(TAG, "Received non-data packet: " + packetType);
+                return -1;
+            }
             
-            byte[] hash = mac.doFinal("public_key_generation".getBytes());
-            System.arraycopy(hash, 0, publicKey, 0, KEY_SIZE);
+            byte[] nonce = new byte[NONCE_SIZE];
+            packet.get(nonce);
+            Cipher cipher = initDataCipher(Cipher.DECRYPT_MODE, receivingKey, nonce, header);
+            
+            int start = out.position();
+            if ((header & FLAG_COMPRESSED) == 0) {
+                cipher.doFinal(packet, out);
+            } else {
+                // Decompression works on heap arrays; the flag is AAD, so it is checked below
+                int length = packet.remaining();
+                if (decompressInput.length < length) {
+                    decompressInput = new byte[length];
+                }
+                int compressedLength = cipher.doFinal(packet, ByteBuffer.wrap(decompressInput));
+                long started = System.nanoTime();
+                byte[] decompressed = PacketCompressor.decompress(decompressInput, 0, compressedLength);
+                compressionNanos += System.nanoTime() - started;
+                if (decompressed == null) {
+                    Log.w(TAG, "Dropping packet with malformed compressed payload");
+                    return -1;
+                }
+                out.put(decompressed);
+            }
+            receivingCounter++;
             
-            return publicKey;
+            // The header is authenticated, so the peer's advertisement can be trusted
+            peerAcceptsCompression = (header & FLAG_ACCEPTS_COMPRESSION) != 0;
+            return out.position() - start;
             
         } catch (Exception e) {
-            Log.e(TAG, "Failed to generate public key", e);
-            return new byte[KEY_SIZE]; // Return zero key on error
+            Log.e(TAG, "Failed to decrypt packet", e);
+            return -1;
         }
     }
     
+    /**
+     * Generate a key pair for this instance
+     */
+    private void generateKeyPair() {
+        privateKey = X25519.generatePrivateKey(secureRandom);
+        publicKey = X25519.publicKey(privateKey);
+        
+        // Cached static-static secrets belong to the previous key pair
+        staticSecrets.clear();
+        
+        Log.d(TAG, "Generated new key pair");
+    }
+    
     /**
      * Generate a demo key from seed (for testing)
      */
@@ -193,28 +454,6 @@ public class WireGuardConfig {
         }
     }
     
-    /**
-     * Compute shared secret (simplified ECDH)
-     */
-    private byte[] computeSharedSecret(byte[] privateKey, byte[] peerPublicKey) {
-        try {
-            // Simplified shared secret computation (not real ECDH)
-            Mac mac = Mac.getInstance("HmacSHA256");
-            SecretKeySpec keySpec = new SecretKeySpec(privateKey, "HmacSHA256");
-            mac.init(keySpec);
-            
-            byte[] hash = mac.doFinal(peerPublicKey);
-            byte[] secret = new byte[KEY_SIZE];
-            System.arraycopy(hash, 0, secret, 0, KEY_SIZE);
-            
-            return secret;
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to compute shared secret", e);
-            return new byte[KEY_SIZE];
-        }
-    }
-    
     /**
      * Derive session keys from shared secret
      */
@@ -251,21 +490,32 @@ public class WireGuardConfig {
         return nonce.array();
     }
     
+    /**
+     * Data-path cipher keyed and initialized for one packet; headers carrying
+     * flags are authenticated as AAD
+     */
+    private Cipher initDataCipher(int mode, byte[] key, byte[] nonce, int header) throws Exception {
+        if (mode == Cipher.ENCRYPT_MODE && encryptCipher == null) {
+            encryptCipher = Cipher.getInstance("AES/GCM/NoPadding");
+        } else if (mode == Cipher.DECRYPT_MODE && decryptCipher == null) {
+            decryptCipher = Cipher.getInstance("AES/GCM/NoPadding");
+        }
+        Cipher cipher = mode == Cipher.ENCRYPT_MODE ? encryptCipher : decryptCipher;
+        cipher.init(mode, new SecretKeySpec(key, "AES"), new javax.crypto.spec.GCMParameterSpec(128, nonce));
+        if (header != PACKET_DATA) {
+            cipher.updateAAD(ByteBuffer.allocate(4).putInt(header).array());
+        }
+        return cipher;
+    }
+    
     /**
      * Encrypt data using ChaCha20-Poly1305 (simplified implementation)
      */
-    private byte[] encryptChaCha20Poly1305(byte[] plaintext, int offset, int length, byte[] key, byte[] nonce) {
+    private byte[] encryptChaCha20Poly1305(byte[] plaintext, int offset, int length, byte[] key, byte[] nonce, int header) {
         try {
             // For demo purposes, use AES-GCM instead of ChaCha20-Poly1305
             // In production, you would use actual ChaCha20-Poly1305
-            
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
-            
-            // Use nonce as IV (first 12 bytes)
-            javax.crypto.spec.GCMParameterSpec gcmSpec = new javax.crypto.spec.GCMParameterSpec(128, nonce);
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, gcmSpec);
-            
+            Cipher cipher = initDataCipher(Cipher.ENCRYPT_MODE, key, nonce, header);
             return cipher.doFinal(plaintext, offset, length);
             
         } catch (Exception e) {
@@ -277,17 +527,10 @@ public class WireGuardConfig {
     /**
      * Decrypt data using ChaCha20-Poly1305 (simplified implementation)
      */
-    private byte[] decryptChaCha20Poly1305(byte[] ciphertext, byte[] key, byte[] nonce) {
+    private byte[] decryptChaCha20Poly1305(byte[] ciphertext, byte[] key, byte[] nonce, int header) {
         try {
             // For demo purposes, use AES-GCM instead of ChaCha20-Poly1305
-            
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
-            
-            // Use nonce as IV
-            javax.crypto.spec.GCMParameterSpec gcmSpec = new javax.crypto.spec.GCMParameterSpec(128, nonce);
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, gcmSpec);
-            
+            Cipher cipher = initDataCipher(Cipher.DECRYPT_MODE, key, nonce, header);
             return cipher.doFinal(ciphertext);
             
         } catch (Exception e) {
@@ -296,6 +539,30 @@ public class WireGuardConfig {
         }
     }
     
+    /**
+     * Advertise compression support and compress outgoing packets once the
+     * peer advertises it too. Received compressed packets are always accepted.
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        compressionEnabled = enabled;
+    }
+    
+    /**
+     * Start a new session: forget the peer's advertisement and zero the totals
+     */
+    public void resetCompression() {
+        peerAcceptsCompression = false;
+        packetsCompressed = packetsSkipped = compressionBytesIn = compressionBytesSaved = compressionNanos = 0;
+    }
+    
+    /**
+     * Compression totals; call from the tunnel thread, which owns the counters
+     */
+    public CompressionStats getCompressionStats() {
+        return new CompressionStats(compressionEnabled && peerAcceptsCompression, packetsCompressed,
+                packetsSkipped, compressionBytesIn, compressionBytesSaved, compressionNanos / 1000);
+    }
+    
     // Getters for status information
     public long getSendingCounter() {
         return sendingCounter;
@@ -305,7 +572,7 @@ public class WireGuardConfig {
         return receivingCounter;
     }
     
-    public byte[] getPublicKey() {
+    public synchronized byte[] getPublicKey() {
         return publicKey != null ? Arrays.copyOf(publicKey, publicKey.length) : null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,284 @@
+package com.falcon.securechat.vpn;
+
+import android.util.Log;
+
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import javax.crypto.KeyAgreement;
+
+/**
+ * X25519 Diffie-Hellman (RFC 7748)
+ * Uses the platform "XDH" KeyAgreement when the device provides one and falls
+ * back to a constant-time pure-Java Montgomery ladder otherwise
+ */
+public final class X25519 {
+    private static final String TAG = "X25519";
+
+    public static final int KEY_SIZE = 32;
+
+    // DER prefixes wrapping a raw 32-byte key into SubjectPublicKeyInfo / PKCS#8
+    private static final byte[] PUBLIC_KEY_PREFIX = {
+        0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x6e, 0x03, 0x21, 0x00
+    };
+    private static final byte[] PRIVATE_KEY_PREFIX = {
+        0x30, 0x2e, 0x02, 0x01, 0x00, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x6e, 0x04, 0x22, 0x04, 0x20
+    };
+
+    private static final byte[] BASE_POINT = new byte[KEY_SIZE];
+    private static final long[] A24 = {0xDB41, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    static {
+        BASE_POINT[0] = 9;
+    }
+
+    private X25519() {
+    }
+
+    /**
+     * Lazily probes the platform provider once; the result is cached for the process
+     */
+    private static final class Platform {
+        static final boolean AVAILABLE = probe();
+
+        private static boolean probe() {
+            try {
+                KeyFactory.getInstance("XDH");
+                KeyAgreement.getInstance("XDH");
+                // Cross-check the provider against the pure-Java ladder before trusting it
+                byte[] scalar = new byte[KEY_SIZE];
+                scalar[0] = 0x48;
+                scalar[31] = 0x40;
+                byte[] reference = new byte[KEY_SIZE];
+                ladder(reference, scalar, BASE_POINT);
+                boolean ok = MessageDigest.isEqual(agree(scalar, BASE_POINT), reference);
+                Log.d(TAG, ok ? "Using platform XDH provider" : "Platform XDH mismatch, using fallback");
+                return ok;
+            } catch (Exception e) {
+                Log.d(TAG, "Platform XDH unavailable, using pure-Java fallback");
+                return false;
+            }
+        }
+
+        static byte[] agree(byte[] privateKey, byte[] peerPublicKey) throws Exception {
+            KeyFactory keyFactory = KeyFactory.getInstance("XDH");
+            PrivateKey priv = keyFactory.generatePrivate(
+                new PKCS8EncodedKeySpec(concat(PRIVATE_KEY_PREFIX, privateKey)));
+            PublicKey pub = keyFactory.generatePublic(
+                new X509EncodedKeySpec(concat(PUBLIC_KEY_PREFIX, peerPublicKey)));
+            KeyAgreement agreement = KeyAgreement.getInstance("XDH");
+            agreement.init(priv);
+            agreement.doPhase(pub, true);
+            return agreement.generateSecret();
+        }
+    }
+
+    /**
+     * Generate a clamped private key
+     */
+    public static byte[] generatePrivateKey(SecureRandom random) {
+        byte[] key = new byte[KEY_SIZE];
+        random.nextBytes(key);
+        key[0] &= (byte) 248;
+        key[31] &= 127;
+        key[31] |= 64;
+        return key;
+    }
+
+    /**
+     * Derive the public key for a private key
+     */
+    public static byte[] publicKey(byte[] privateKey) {
+        byte[] out = new byte[KEY_SIZE];
+        ladder(out, privateKey, BASE_POINT);
+        return out;
+    }
+
+    /**
+     * Compute the shared secret, or null if the peer key is a low-order point
+     * (an all-zero result, which RFC 7748 says must be rejected)
+     */
+    public static byte[] sharedSecret(byte[] privateKey, byte[] peerPublicKey) {
+        byte[] out = null;
+        if (Platform.AVAILABLE) {
+            try {
+                out = Platform.agree(privateKey, peerPublicKey);
+            } catch (Exception e) {
+                // Some providers reject low-order points up front
+                Log.w(TAG, "Platform XDH agreement failed, retrying with fallback", e);
+            }
+        }
+        if (out == null) {
+            out = new byte[KEY_SIZE];
+            ladder(out, privateKey, peerPublicKey);
+        }
+        int acc = 0;
+        for (byte b : out) {
+            acc |= b;
+        }
+        return acc == 0 ? null : out;
+    }
+
+    public static boolean isPlatformAccelerated() {
+        return Platform.AVAILABLE;
+    }
+
+    private static byte[] concat(byte[] prefix, byte[] key) {
+        byte[] out = new byte[prefix.length + key.length];
+        System.arraycopy(prefix, 0, out, 0, prefix.length);
+        System.arraycopy(key, 0, out, prefix.length, key.length);
+        return out;
+    }
+
+    // Field arithmetic mod 2^255 - 19 on 16 limbs of 16 bits, constant-time throughout
+
+    private static void ladder(byte[] out, byte[] scalar, byte[] point) {
+        byte[] z = new byte[KEY_SIZE];
+        System.arraycopy(scalar, 0, z, 0, KEY_SIZE);
+        z[31] = (byte) ((scalar[31] & 127) | 64);
+        z[0] &= (byte) 248;
+
+        long[] x = new long[16];
+        long[] a = new long[16];
+        long[] b = new long[16];
+        long[] c = new long[16];
+        long[] d = new long[16];
+        long[] e = new long[16];
+        long[] f = new long[16];
+        long[] t = new long[31];
+
+        unpack(x, point);
+        System.arraycopy(x, 0, b, 0, 16);
+        a[0] = 1;
+        d[0] = 1;
+
+        for (int i = 254; i >= 0; --i) {
+            int r = (z[i >>> 3] >>> (i & 7)) & 1;
+            select(a, b, r);
+            select(c, d, r);
+            add(e, a, c);
+            sub(a, a, c);
+            add(c, b, d);
+            sub(b, b, d);
+            mul(d, e, e, t);
+            mul(f, a, a, t);
+            mul(a, c, a, t);
+            mul(c, b, e, t);
+            add(e, a, c);
+            sub(a, a, c);
+            mul(b, a, a, t);
+            sub(c, d, f);
+            mul(a, c, A24, t);
+            add(a, a, d);
+            mul(c, c, a, t);
+            mul(a, d, f, t);
+            mul(d, b, x, t);
+            mul(b, e, e, t);
+            select(a, b, r);
+            select(c, d, r);
+        }
+
+        invert(c, c, t);
+        mul(a, a, c, t);
+        pack(out, a);
+    }
+
+    private static void carry(long[] o) {
+        for (int i = 0; i < 16; i++) {
+            o[i] += 1L << 16;
+            long c = o[i] >> 16;
+            if (i < 15) {
+                o[i + 1] += c - 1;
+            } else {
+                o[0] += 38 * (c - 1);
+            }
+            o[i] -= c << 16;
+        }
+    }
+
+    private static void select(long[] p, long[] q, int bit) {
+        long mask = -bit;
+        for (int i = 0; i < 16; i++) {
+            long t = mask & (p[i] ^ q[i]);
+            p[i] ^= t;
+            q[i] ^= t;
+        }
+    }
+
+    private static void pack(byte[] o, long[] n) {
+        long[] m = new long[16];
+        long[] t = new long[16];
+        System.arraycopy(n, 0, t, 0, 16);
+        carry(t);
+        carry(t);
+        carry(t);
+        for (int j = 0; j < 2; j++) {
+            m[0] = t[0] - 0xffed;
+            for (int i = 1; i < 15; i++) {
+                m[i] = t[i] - 0xffff - ((m[i - 1] >> 16) & 1);
+                m[i - 1] &= 0xffff;
+            }
+            m[15] = t[15] - 0x7fff - ((m[14] >> 16) & 1);
+            int b = (int) ((m[15] >> 16) & 1);
+            m[14] &= 0xffff;
+            select(t, m, 1 - b);
+        }
+        for (int i = 0; i < 16; i++) {
+            o[2 * i] = (byte) t[i];
+            o[2 * i + 1] = (byte) (t[i] >> 8);
+        }
+    }
+
+    private static void unpack(long[] o, byte[] n) {
+        for (int i = 0; i < 16; i++) {
+            o[i] = (n[2 * i] & 0xff) + ((long) (n[2 * i + 1] & 0xff) << 8);
+        }
+        o[15] &= 0x7fff;
+    }
+
+    private static void add(long[] o, long[] a, long[] b) {
+        for (int i = 0; i < 16; i++) {
+            o[i] = a[i] + b[i];
+        }
+    }
+
+    private static void sub(long[] o, long[] a, long[] b) {
+        for (int i = 0; i < 16; i++) {
+            o[i] = a[i] - b[i];
+        }
+    }
+
+    private static void mul(long[] o, long[] a, long[] b, long[] t) {
+        for (int i = 0; i < 31; i++) {
+            t[i] = 0;
+        }
+        for (int i = 0; i < 16; i++) {
+            long ai = a[i];
+            for (int j = 0; j < 16; j++) {
+                t[i + j] += ai * b[j];
+            }
+        }
+        for (int i = 0; i < 15; i++) {
+            t[i] += 38 * t[i + 16];
+        }
+        System.arraycopy(t, 0, o, 0, 16);
+        carry(o);
+        carry(o);
+    }
+
+    private static void invert(long[] o, long[] in, long[] t) {
+        long[] c = new long[16];
+        System.arraycopy(in, 0, c, 0, 16);
+        for (int a = 253; a >= 0; a--) {
+            mul(c, c, c, t);
+            if (a != 2 && a != 4) {
+                mul(c, c, in, t);
+            }
+        }
+        System.arraycopy(c, 0, o, 0, 16);
+    }
+}
@@ -0,0 +1,101 @@
+package com.falcon.securechat.vpn.io;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Pure-Java fallback: one stream or channel call per packet
+ */
+final class JavaTunnelIo extends TunnelIo {
+
+    private final FileInputStream tunInput;
+    private final FileOutputStream tunOutput;
+    private final DatagramChannel channel;
+    private byte[] scratch = new byte[0];
+
+    JavaTunnelIo(ParcelFileDescriptor tunInterface, DatagramChannel channel) {
+        // The streams only borrow the descriptor; the ParcelFileDescriptor closes it
+        this.tunInput = new FileInputStream(tunInterface.getFileDescriptor());
+        this.tunOutput = new FileOutputStream(tunInterface.getFileDescriptor());
+        this.channel = channel;
+    }
+
+    @Override
+    public int readTun(PacketBatch batch, int maxCount) throws IOException {
+        byte[] buffer = scratch(batch.slotSize);
+        int count = 0;
+        while (count < Math.min(maxCount, batch.capacity)) {
+            syscalls++;
+            // Non-blocking tun: read returns 0 when no packet is queued
+            int length = tunInput.read(buffer, 0, batch.slotSize);
+            if (length <= 0) {
+                break;
+            }
+            batch.put(count++, buffer, length);
+        }
+        packets += count;
+        return count;
+    }
+
+    @Override
+    public int writeTun(PacketBatch batch, int count) throws IOException {
+        byte[] buffer = scratch(batch.slotSize);
+        for (int i = 0; i < count; i++) {
+            int length = batch.copyOut(i, buffer);
+            tunOutput.write(buffer, 0, length);
+        }
+        syscalls += count;
+        packets += count;
+        return count;
+    }
+
+    @Override
+    public int send(PacketBatch batch, int count) throws IOException {
+        int sent = 0;
+        for (int i = 0; i < count; i++) {
+            syscalls++;
+            if (channel.write(batch.packet(i)) <= 0) {
+                break;
+            }
+            sent++;
+        }
+        packets += sent;
+        return sent;
+    }
+
+    @Override
+    public int receive(PacketBatch batch) throws IOException {
+        int count = 0;
+        while (count < batch.capacity) {
+            syscalls++;
+            int length = channel.read(batch.slot(count));
+            if (length <= 0) {
+                break;
+            }
+            batch.setLength(count++, length);
+        }
+        packets += count;
+        return count;
+    }
+
+    @Override
+    public boolean isNative() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // Nothing owned
+    }
+
+    private byte[] scratch(int size) {
+        if (scratch.length < size) {
+            scratch = new byte[size];
+        }
+        return scratch;
+    }
+}
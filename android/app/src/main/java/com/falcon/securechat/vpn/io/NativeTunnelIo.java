@@ -0,0 +1,97 @@
+package com.falcon.securechat.vpn.io;
+
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Native shim (libfalcon_io): bursts of tun read()/write() and
+ * recvmmsg()/sendmmsg() on the outer socket, straight into the shared direct
+ * buffers of a PacketBatch
+ */
+final class NativeTunnelIo extends TunnelIo {
+    private static final String TAG = "NativeTunnelIo";
+
+    private static final boolean AVAILABLE = loadLibrary();
+
+    private final int tunFd;
+    // Our own dup of the channel's socket, so the native side never outlives the descriptor
+    private final ParcelFileDescriptor socket;
+    private final int socketFd;
+    // Two ints written by native code per call: syscalls made, errno of a hard failure
+    private final int[] result = new int[2];
+
+    NativeTunnelIo(ParcelFileDescriptor tunInterface, DatagramChannel channel) throws IOException {
+        socket = ParcelFileDescriptor.fromDatagramSocket(channel.socket());
+        if (socket == null) {
+            throw new IOException("Datagram socket has no file descriptor");
+        }
+        tunFd = tunInterface.getFd();
+        socketFd = socket.getFd();
+    }
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    private static boolean loadLibrary() {
+        try {
+            System.loadLibrary("falcon_io");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            Log.i(TAG, "libfalcon_io not available for this ABI");
+            return false;
+        }
+    }
+
+    @Override
+    public int readTun(PacketBatch batch, int maxCount) throws IOException {
+        int count = Math.min(maxCount, batch.capacity);
+        return check(nativeReadTun(tunFd, batch.data, batch.lengths, batch.slotSize, count, result));
+    }
+
+    @Override
+    public int writeTun(PacketBatch batch, int count) throws IOException {
+        return check(nativeWriteTun(tunFd, batch.data, batch.lengths, batch.slotSize, count, result));
+    }
+
+    @Override
+    public int send(PacketBatch batch, int count) throws IOException {
+        return check(nativeSend(socketFd, batch.data, batch.lengths, batch.slotSize, count, result));
+    }
+
+    @Override
+    public int receive(PacketBatch batch) throws IOException {
+        return check(nativeReceive(socketFd, batch.data, batch.lengths, batch.slotSize, batch.capacity, result));
+    }
+
+    @Override
+    public boolean isNative() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private int check(int count) throws IOException {
+        syscalls += result[0];
+        if (count < 0) {
+            throw new IOException("Native tunnel I/O failed, errno " + result[1]);
+        }
+        packets += count;
+        return count;
+    }
+
+    private static native int nativeReadTun(int fd, ByteBuffer data, ByteBuffer lengths, int slotSize, int maxCount, int[] result);
+
+    private static native int nativeWriteTun(int fd, ByteBuffer data, ByteBuffer lengths, int slotSize, int count, int[] result);
+
+    private static native int nativeSend(int fd, ByteBuffer data, ByteBuffer lengths, int slotSize, int count, int[] result);
+
+    private static native int nativeReceive(int fd, ByteBuffer data, ByteBuffer lengths, int slotSize, int maxCount, int[] result);
+}
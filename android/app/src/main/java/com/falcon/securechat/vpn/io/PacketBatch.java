@@ -0,0 +1,112 @@
+package com.falcon.securechat.vpn.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed set of packet slots in direct memory, shared with the native I/O shim
+ *
+ * Slot i occupies data[i * slotSize, (i + 1) * slotSize) and its packet length
+ * is the i-th native-order int in lengths. Each slot has one precomputed view,
+ * so per-packet access allocates nothing. Not thread-safe: each batch belongs
+ * to the data-plane thread.
+ */
+public final class PacketBatch {
+
+    final ByteBuffer data;
+    final ByteBuffer lengths;
+    final int slotSize;
+    final int capacity;
+    private final ByteBuffer[] slots;
+
+    public PacketBatch(int capacity, int slotSize) {
+        this.capacity = capacity;
+        this.slotSize = slotSize;
+        this.data = ByteBuffer.allocateDirect(capacity * slotSize);
+        this.lengths = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder());
+        this.slots = new ByteBuffer[capacity];
+        ByteBuffer view = data.duplicate();
+        for (int i = 0; i < capacity; i++) {
+            view.limit((i + 1) * slotSize);
+            view.position(i * slotSize);
+            slots[i] = view.slice();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int slotSize() {
+        return slotSize;
+    }
+
+    public int length(int slot) {
+        return lengths.getInt(slot * 4);
+    }
+
+    /**
+     * The slot's packet, positioned at 0 with its length as limit. The view is
+     * shared: the next call for the same slot resets it.
+     */
+    public ByteBuffer packet(int slot) {
+        ByteBuffer view = slots[slot];
+        view.clear();
+        view.limit(length(slot));
+        return view;
+    }
+
+    /**
+     * The whole slot, empty and ready to be filled; record what was written
+     * with setLength. Shared like packet().
+     */
+    public ByteBuffer slot(int slot) {
+        ByteBuffer view = slots[slot];
+        view.clear();
+        return view;
+    }
+
+    public void setLength(int slot, int length) {
+        lengths.putInt(slot * 4, length);
+    }
+
+    /**
+     * Copy a slot's packet into dst, which must hold at least length(slot) bytes
+     */
+    public int copyOut(int slot, byte[] dst) {
+        ByteBuffer view = packet(slot);
+        int length = view.remaining();
+        view.get(dst, 0, length);
+        return length;
+    }
+
+    /**
+     * Store a packet into a slot
+     *
+     * @return false if the packet does not fit the slot
+     */
+    public boolean put(int slot, byte[] src, int length) {
+        if (length > slotSize) {
+            return false;
+        }
+        slot(slot).put(src, 0, length);
+        setLength(slot, length);
+        return true;
+    }
+
+    /**
+     * Move count slots starting at from to the front of the batch
+     */
+    public void shift(int from, int count) {
+        if (from == 0 || count <= 0) {
+            return;
+        }
+        // Slot by slot: with from > 0 a source slot never overlaps its target slot
+        for (int i = 0; i < count; i++) {
+            ByteBuffer source = packet(from + i);
+            int length = source.remaining();
+            slot(i).put(source);
+            setLength(i, length);
+        }
+    }
+}
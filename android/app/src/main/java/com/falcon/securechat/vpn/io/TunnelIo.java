@@ -0,0 +1,68 @@
+package com.falcon.securechat.vpn.io;
+
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Batched packet I/O for the tunnel data plane: bursts of tun reads and
+ * writes plus batches of outer datagrams. All calls are non-blocking and
+ * return the number of packets moved, 0 when nothing is ready.
+ */
+public abstract class TunnelIo implements Closeable {
+    private static final String TAG = "TunnelIo";
+
+    // Syscall and packet totals, for the syscalls-per-packet figure in the stats log
+    protected long syscalls;
+    protected long packets;
+
+    /**
+     * Use the native shim when it loaded for this ABI, the stream-based fallback otherwise
+     */
+    public static TunnelIo open(ParcelFileDescriptor tunInterface, DatagramChannel channel) throws IOException {
+        if (NativeTunnelIo.isAvailable()) {
+            try {
+                return new NativeTunnelIo(tunInterface, channel);
+            } catch (IOException e) {
+                Log.w(TAG, "Native tunnel I/O unavailable, using Java fallback", e);
+            }
+        }
+        return new JavaTunnelIo(tunInterface, channel);
+    }
+
+    /**
+     * Read up to maxCount packets from the tun interface into the leading slots
+     */
+    public abstract int readTun(PacketBatch batch, int maxCount) throws IOException;
+
+    /**
+     * Write the first count packets of the batch to the tun interface
+     */
+    public abstract int writeTun(PacketBatch batch, int count) throws IOException;
+
+    /**
+     * Send the first count packets of the batch as datagrams to the connected peer
+     */
+    public abstract int send(PacketBatch batch, int count) throws IOException;
+
+    /**
+     * Receive up to batch.capacity() datagrams from the connected peer
+     */
+    public abstract int receive(PacketBatch batch) throws IOException;
+
+    public abstract boolean isNative();
+
+    public double syscallsPerPacket() {
+        return packets == 0 ? 0 : (double) syscalls / packets;
+    }
+
+    /**
+     * Release resources owned by this instance; the tun interface and channel
+     * stay open and remain owned by the caller
+     */
+    @Override
+    public abstract void close() throws IOException;
+}
@@ -0,0 +1,183 @@
+package com.falcon.securechat.vpn.pacing;
+
+import com.falcon.securechat.vpn.io.PacketBatch;
+
+/**
+ * BBR-style pacing for outer datagrams.
+ *
+ * The bottleneck bandwidth is the windowed maximum of per-round delivery
+ * rates and the RTT is the windowed minimum of RTT samples, both fed by
+ * {@link TcpDeliverySampler} and keepalive echoes. Sends are released against
+ * a virtual departure clock advanced by packet size over the pacing rate, so
+ * the data plane never sleeps for pacing; packets that are not due yet stay
+ * queued until a later pass of the tunnel loop.
+ *
+ * Delivery is only observable for TCP, so only TCP packets are charged to the
+ * departure clock. Other datagrams (UDP/QUIC, DNS) leave as soon as nothing
+ * paced is queued ahead of them and never drag the estimate down to the TCP
+ * share of the traffic.
+ *
+ * Not thread-safe: owned by the tunnel thread. Times are data-plane clock
+ * nanoseconds.
+ */
+public final class EgressPacer {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long MIN_RTT_WINDOW_NANOS = 10 * NANOS_PER_SECOND;
+    // Round length until the first RTT sample, and lower bound afterwards
+    private static final long DEFAULT_ROUND_NANOS = 100_000_000L;
+    private static final long MIN_ROUND_NANOS = 10_000_000L;
+    private static final int BANDWIDTH_WINDOW_ROUNDS = 10;
+    // ProbeBW gain cycle, one phase per round
+    private static final double[] GAIN_CYCLE = { 1.25, 0.75, 1, 1, 1, 1, 1, 1 };
+    // Never pace below this, so a stale low estimate cannot starve the tunnel
+    private static final long MIN_PACING_RATE = 32 * 1024;
+    // Up to this much send time may be released back to back after an idle period
+    private static final long MAX_BURST_NANOS = 1_000_000L;
+
+    private boolean enabled;
+
+    private long minRttNanos = -1;
+    private long minRttStamp;
+
+    private final long[] roundRates = new long[BANDWIDTH_WINDOW_ROUNDS];
+    private int roundIndex;
+    private long roundStart = -1;
+    private long roundDelivered;
+    private boolean roundBacklogged;
+    private long bandwidth;
+
+    private int cycleIndex;
+    private long cycleStart;
+    private long nextSendNanos;
+
+    private long deferredPackets;
+    // Leading packets of the caller's queue already counted in deferredPackets
+    private int deferredQueued;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Forget the path model, e.g. for a new connection or endpoint
+     */
+    public void reset() {
+        minRttNanos = -1;
+        roundStart = -1;
+        roundDelivered = 0;
+        roundBacklogged = false;
+        bandwidth = 0;
+        cycleIndex = 0;
+        nextSendNanos = 0;
+        deferredPackets = 0;
+        deferredQueued = 0;
+        for (int i = 0; i < roundRates.length; i++) {
+            roundRates[i] = 0;
+        }
+    }
+
+    public void onRttSample(long rttNanos, long now) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (minRttNanos < 0 || rttNanos <= minRttNanos || now - minRttStamp > MIN_RTT_WINDOW_NANOS) {
+            minRttNanos = rttNanos;
+            minRttStamp = now;
+        }
+    }
+
+    /**
+     * Bytes newly acknowledged by the far end
+     */
+    public void onDelivered(long bytes, long now) {
+        if (roundStart < 0) {
+            roundStart = now;
+        }
+        roundDelivered += bytes;
+        maybeEndRound(now);
+    }
+
+    /**
+     * Number of leading packets of the batch that are due now. Only packets
+     * flagged in {@code paced} consume departure time. Departure times are
+     * committed, so the caller must send the admitted packets and keep the
+     * rest at the front of its queue.
+     */
+    public int admit(PacketBatch batch, boolean[] paced, int count, long now) {
+        long rate = pacingRate(now);
+        if (!enabled || rate == 0) {
+            deferredQueued = 0;
+            return count;
+        }
+        if (nextSendNanos < now - MAX_BURST_NANOS) {
+            nextSendNanos = now - MAX_BURST_NANOS;
+        }
+        int admitted = 0;
+        while (admitted < count) {
+            if (paced[admitted]) {
+                if (nextSendNanos > now) {
+                    break;
+                }
+                nextSendNanos += batch.length(admitted) * NANOS_PER_SECOND / rate;
+            }
+            admitted++;
+        }
+        int queued = count - admitted;
+        if (queued > 0) {
+            // Packets still waiting from an earlier pass were counted then
+            deferredPackets += queued - Math.min(queued, Math.max(0, deferredQueued - admitted));
+            roundBacklogged = true;
+        }
+        deferredQueued = queued;
+        return admitted;
+    }
+
+    /**
+     * Current pacing rate in bytes per second, 0 while there is no estimate
+     */
+    public long pacingRate(long now) {
+        if (bandwidth == 0) {
+            return 0;
+        }
+        if (now - cycleStart >= roundLength()) {
+            cycleIndex = (cycleIndex + 1) % GAIN_CYCLE.length;
+            cycleStart = now;
+        }
+        return Math.max(MIN_PACING_RATE, (long) (bandwidth * GAIN_CYCLE[cycleIndex]));
+    }
+
+    public PacingStats stats(long now) {
+        return new PacingStats(enabled, bandwidth, minRttNanos < 0 ? -1 : minRttNanos / 1000,
+                enabled ? pacingRate(now) : 0, deferredPackets);
+    }
+
+    private long roundLength() {
+        return minRttNanos < 0 ? DEFAULT_ROUND_NANOS : Math.max(MIN_ROUND_NANOS, minRttNanos);
+    }
+
+    private void maybeEndRound(long now) {
+        long elapsed = now - roundStart;
+        if (elapsed < roundLength()) {
+            return;
+        }
+        long rate = roundDelivered * NANOS_PER_SECOND / elapsed;
+        // Application-limited rounds only count when they raise the estimate
+        if (roundBacklogged || rate > bandwidth) {
+            roundRates[roundIndex] = rate;
+            roundIndex = (roundIndex + 1) % roundRates.length;
+            long max = 0;
+            for (long sample : roundRates) {
+                max = Math.max(max, sample);
+            }
+            bandwidth = max;
+        }
+        roundStart = now;
+        roundDelivered = 0;
+        roundBacklogged = false;
+    }
+}
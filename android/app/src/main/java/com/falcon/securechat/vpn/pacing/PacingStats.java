@@ -0,0 +1,38 @@
+package com.falcon.securechat.vpn.pacing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the egress pacer's path model
+ */
+public final class PacingStats {
+
+    public static final PacingStats EMPTY = new PacingStats(false, 0, -1, 0, 0);
+
+    public final boolean enabled;
+    // Estimated bottleneck bandwidth in bytes per second, 0 until measured
+    public final long bandwidth;
+    public final long minRttMicros;
+    public final long pacingRate;
+    // Packets held back at least one loop pass because they were not due yet
+    public final long deferredPackets;
+
+    public PacingStats(boolean enabled, long bandwidth, long minRttMicros, long pacingRate, long deferredPackets) {
+        this.enabled = enabled;
+        this.bandwidth = bandwidth;
+        this.minRttMicros = minRttMicros;
+        this.pacingRate = pacingRate;
+        this.deferredPackets = deferredPackets;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("enabled", enabled);
+        map.put("bandwidth", bandwidth);
+        map.put("minRttMicros", minRttMicros);
+        map.put("pacingRate", pacingRate);
+        map.put("deferredPackets", deferredPackets);
+        return map;
+    }
+}
@@ -0,0 +1,132 @@
+package com.falcon.securechat.vpn.pacing;
+
+import com.falcon.securechat.vpn.packet.IpPacketView;
+import com.falcon.securechat.vpn.packet.TcpHeaderView;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Derives delivery and RTT samples for the pacer from TCP flows inside the
+ * tunnel: cumulative ACKs coming back are the echo of data we sent. The
+ * pacer only charges TCP packets against the resulting rate.
+ *
+ * Flows live in a small open-addressed table of parallel arrays; a colliding
+ * flow simply takes over a slot, which only costs a sample. Not thread-safe:
+ * owned by the tunnel thread.
+ */
+public final class TcpDeliverySampler {
+
+    private static final int CAPACITY = 1024;
+    private static final int MAX_PROBE = 8;
+    private static final long SEQ_MASK = 0xFFFFFFFFL;
+    // ACK jumps beyond this are treated as a new or confused flow, not delivery
+    private static final long MAX_ACK_ADVANCE = 1L << 30;
+
+    private final EgressPacer pacer;
+    private final TcpHeaderView tcp = new TcpHeaderView();
+
+    private final long[] keys = new long[CAPACITY];
+    private final long[] highestAck = new long[CAPACITY];
+    private final long[] sampleSeq = new long[CAPACITY];
+    private final long[] sampleSentNanos = new long[CAPACITY];
+
+    public TcpDeliverySampler(EgressPacer pacer) {
+        this.pacer = pacer;
+        reset();
+    }
+
+    public void reset() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(highestAck, -1);
+        Arrays.fill(sampleSentNanos, 0);
+    }
+
+    /**
+     * A packet leaving through the tunnel; starts an RTT sample for its flow
+     */
+    public void onEgress(IpPacketView ip, long now) {
+        if (!tcp.wrap(ip)) {
+            return;
+        }
+        int payload = ip.transportLength() - tcp.headerLength();
+        if (payload <= 0) {
+            return;
+        }
+        long key = flowKey(ip, ip.sourceAddressOffset(), ip.destinationAddressOffset(),
+                tcp.sourcePort(), tcp.destinationPort());
+        int slot = slot(key, true);
+        if (sampleSentNanos[slot] == 0) {
+            sampleSeq[slot] = (tcp.sequenceNumber() + payload) & SEQ_MASK;
+            sampleSentNanos[slot] = now;
+        }
+    }
+
+    /**
+     * A packet arriving from the tunnel; its ACK reports delivered bytes
+     */
+    public void onIngress(IpPacketView ip, long now) {
+        if (!tcp.wrap(ip) || !tcp.hasFlag(TcpHeaderView.FLAG_ACK)) {
+            return;
+        }
+        // Same key as the outgoing direction: local and remote swapped
+        long key = flowKey(ip, ip.destinationAddressOffset(), ip.sourceAddressOffset(),
+                tcp.destinationPort(), tcp.sourcePort());
+        int slot = slot(key, false);
+        if (slot < 0) {
+            return;
+        }
+
+        long ack = tcp.acknowledgementNumber();
+        if (highestAck[slot] >= 0) {
+            long advance = (ack - highestAck[slot]) & SEQ_MASK;
+            if (advance > 0 && advance < MAX_ACK_ADVANCE) {
+                highestAck[slot] = ack;
+                pacer.onDelivered(advance, now);
+            }
+        } else {
+            highestAck[slot] = ack;
+        }
+
+        if (sampleSentNanos[slot] != 0 && ((ack - sampleSeq[slot]) & SEQ_MASK) < MAX_ACK_ADVANCE) {
+            pacer.onRttSample(now - sampleSentNanos[slot], now);
+            sampleSentNanos[slot] = 0;
+        }
+    }
+
+    private int slot(long key, boolean create) {
+        int home = (int) (key ^ (key >>> 32)) & (CAPACITY - 1);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int slot = (home + i) & (CAPACITY - 1);
+            if (keys[slot] == key) {
+                return slot;
+            }
+            if (keys[slot] == 0 && create) {
+                return claim(slot, key);
+            }
+        }
+        return create ? claim(home, key) : -1;
+    }
+
+    private int claim(int slot, long key) {
+        keys[slot] = key;
+        highestAck[slot] = -1;
+        sampleSentNanos[slot] = 0;
+        return slot;
+    }
+
+    /**
+     * 64-bit flow hash over local address, remote address and ports; never 0
+     */
+    private static long flowKey(IpPacketView ip, int localOffset, int remoteOffset, int localPort, int remotePort) {
+        ByteBuffer buffer = ip.buffer();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < ip.addressLength(); i += 4) {
+            hash = (hash ^ buffer.getInt(localOffset + i)) * 0x100000001b3L;
+            hash = (hash ^ buffer.getInt(remoteOffset + i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ ((long) localPort << 16 | remotePort)) * 0x100000001b3L;
+        hash ^= hash >>> 29;
+        return hash == 0 ? 1 : hash;
+    }
+}
@@ -0,0 +1,84 @@
+package com.falcon.securechat.vpn.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Internet checksum helpers (RFC 1071) with incremental update support (RFC 1624)
+ * so headers can be rewritten in place without re-summing the whole packet
+ */
+public final class Checksums {
+
+    private Checksums() {
+    }
+
+    /**
+     * One's-complement sum of {@code length} bytes starting at absolute {@code offset}.
+     * Returns the unfolded 32-bit accumulator so callers can chain pseudo-headers.
+     */
+    public static int sum(ByteBuffer buffer, int offset, int length, int initial) {
+        long acc = initial & 0xFFFFFFFFL;
+        int end = offset + (length & ~1);
+        for (int i = offset; i < end; i += 2) {
+            acc += buffer.getShort(i) & 0xFFFF;
+        }
+        if ((length & 1) != 0) {
+            acc += (buffer.get(offset + length - 1) & 0xFF) << 8;
+        }
+        while ((acc >>> 32) != 0) {
+            acc = (acc & 0xFFFFFFFFL) + (acc >>> 32);
+        }
+        return (int) acc;
+    }
+
+    /**
+     * Fold a 32-bit accumulator down to a 16-bit one's-complement checksum
+     */
+    public static int fold(int sum) {
+        long acc = sum & 0xFFFFFFFFL;
+        while ((acc >>> 16) != 0) {
+            acc = (acc & 0xFFFF) + (acc >>> 16);
+        }
+        return (int) (~acc & 0xFFFF);
+    }
+
+    /**
+     * Full checksum over a region, e.g. an IPv4 header with its checksum field zeroed
+     */
+    public static int compute(ByteBuffer buffer, int offset, int length) {
+        return fold(sum(buffer, offset, length, 0));
+    }
+
+    /**
+     * Update a checksum after one 16-bit word changed: HC' = ~(~HC + ~m + m')
+     */
+    public static int update16(int checksum, int oldWord, int newWord) {
+        int acc = (~checksum & 0xFFFF) + (~oldWord & 0xFFFF) + (newWord & 0xFFFF);
+        acc = (acc & 0xFFFF) + (acc >>> 16);
+        acc = (acc & 0xFFFF) + (acc >>> 16);
+        return ~acc & 0xFFFF;
+    }
+
+    /**
+     * Update a checksum after one 32-bit value (e.g. an IPv4 address) changed
+     */
+    public static int update32(int checksum, int oldValue, int newValue) {
+        checksum = update16(checksum, oldValue >>> 16, newValue >>> 16);
+        return update16(checksum, oldValue & 0xFFFF, newValue & 0xFFFF);
+    }
+
+    /**
+     * Update a checksum after {@code length} bytes (even) changed from
+     * {@code oldBytes} to the bytes now present in the buffer at {@code offset}
+     */
+    public static int updateRange(int checksum, byte[] oldBytes, int oldOffset,
+                                  ByteBuffer buffer, int offset, int length) {
+        for (int i = 0; i < length; i += 2) {
+            int oldWord = ((oldBytes[oldOffset + i] & 0xFF) << 8) | (oldBytes[oldOffset + i + 1] & 0xFF);
+            int newWord = buffer.getShort(offset + i) & 0xFFFF;
+            if (oldWord != newWord) {
+                checksum = update16(checksum, oldWord, newWord);
+            }
+        }
+        return checksum;
+    }
+}
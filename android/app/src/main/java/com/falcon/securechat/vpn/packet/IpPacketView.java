@@ -0,0 +1,369 @@
+package com.falcon.securechat.vpn.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable flyweight view over an IPv4 or IPv6 packet held in a ByteBuffer.
+ * All accessors use absolute reads so the buffer position and limit are never
+ * touched and nothing is allocated per packet; one instance is meant to be
+ * re-wrapped for every packet on the data-plane thread.
+ */
+public final class IpPacketView {
+    public static final int PROTOCOL_HOP_BY_HOP = 0;
+    public static final int PROTOCOL_ICMP = 1;
+    public static final int PROTOCOL_TCP = 6;
+    public static final int PROTOCOL_UDP = 17;
+    public static final int PROTOCOL_ROUTING = 43;
+    public static final int PROTOCOL_FRAGMENT = 44;
+    public static final int PROTOCOL_ESP = 50;
+    public static final int PROTOCOL_AH = 51;
+    public static final int PROTOCOL_ICMPV6 = 58;
+    public static final int PROTOCOL_NO_NEXT = 59;
+    public static final int PROTOCOL_DEST_OPTIONS = 60;
+    public static final int PROTOCOL_MOBILITY = 135;
+    public static final int PROTOCOL_HIP = 139;
+    public static final int PROTOCOL_SHIM6 = 140;
+
+    private static final int IPV4_MIN_HEADER = 20;
+    private static final int IPV6_HEADER = 40;
+    private static final int MAX_EXTENSION_HEADERS = 8;
+
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+    private int version;
+    private int protocol;
+    private int transportOffset;
+    private int fragmentOffset;
+    private boolean moreFragments;
+    private boolean valid;
+
+    /**
+     * Point this view at a packet. Returns false if the bytes are not a
+     * well-formed IPv4/IPv6 header chain, in which case only {@link #isValid()}
+     * may be relied on.
+     */
+    public boolean wrap(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.start = offset;
+        this.length = length;
+        this.protocol = -1;
+        this.transportOffset = -1;
+        this.fragmentOffset = 0;
+        this.moreFragments = false;
+        this.valid = false;
+
+        if (length < 1) {
+            version = 0;
+            return false;
+        }
+        version = (buffer.get(offset) & 0xFF) >>> 4;
+        if (version == 4) {
+            valid = parseIpv4();
+        } else if (version == 6) {
+            valid = parseIpv6();
+        }
+        return valid;
+    }
+
+    private boolean parseIpv4() {
+        if (length < IPV4_MIN_HEADER) {
+            return false;
+        }
+        int headerLength = (buffer.get(start) & 0x0F) << 2;
+        int totalLength = buffer.getShort(start + 2) & 0xFFFF;
+        if (headerLength < IPV4_MIN_HEADER || totalLength < headerLength || totalLength > length) {
+            return false;
+        }
+        // Trust the header's total length over the read length; tun reads never pad
+        length = totalLength;
+        int flagsAndOffset = buffer.getShort(start + 6) & 0xFFFF;
+        moreFragments = (flagsAndOffset & 0x2000) != 0;
+        fragmentOffset = (flagsAndOffset & 0x1FFF) << 3;
+        protocol = buffer.get(start + 9) & 0xFF;
+        transportOffset = start + headerLength;
+        return true;
+    }
+
+    private boolean parseIpv6() {
+        if (length < IPV6_HEADER) {
+            return false;
+        }
+        int payloadLength = buffer.getShort(start + 4) & 0xFFFF;
+        if (IPV6_HEADER + payloadLength > length) {
+            return false;
+        }
+        length = IPV6_HEADER + payloadLength;
+
+        int end = start + length;
+        int next = buffer.get(start + 6) & 0xFF;
+        int cursor = start + IPV6_HEADER;
+
+        // Walk the extension header chain until an upper-layer protocol is found
+        for (int i = 0; i < MAX_EXTENSION_HEADERS; i++) {
+            switch (next) {
+                case PROTOCOL_HOP_BY_HOP:
+                case PROTOCOL_ROUTING:
+                case PROTOCOL_DEST_OPTIONS:
+                case PROTOCOL_MOBILITY:
+                case PROTOCOL_HIP:
+                case PROTOCOL_SHIM6: {
+                    if (cursor + 2 > end) {
+                        return false;
+                    }
+                    int headerLength = ((buffer.get(cursor + 1) & 0xFF) + 1) << 3;
+                    next = buffer.get(cursor) & 0xFF;
+                    cursor += headerLength;
+                    break;
+                }
+                case PROTOCOL_FRAGMENT: {
+                    if (cursor + 8 > end) {
+                        return false;
+                    }
+                    int offsetAndFlags = buffer.getShort(cursor + 2) & 0xFFFF;
+                    fragmentOffset = offsetAndFlags & 0xFFF8;
+                    moreFragments = (offsetAndFlags & 0x1) != 0;
+                    next = buffer.get(cursor) & 0xFF;
+                    cursor += 8;
+                    break;
+                }
+                case PROTOCOL_AH: {
+                    if (cursor + 2 > end) {
+                        return false;
+                    }
+                    int headerLength = ((buffer.get(cursor + 1) & 0xFF) + 2) << 2;
+                    next = buffer.get(cursor) & 0xFF;
+                    cursor += headerLength;
+                    break;
+                }
+                default:
+                    if (cursor > end) {
+                        return false;
+                    }
+                    protocol = next;
+                    transportOffset = cursor;
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public boolean isIpv4() {
+        return valid && version == 4;
+    }
+
+    public boolean isIpv6() {
+        return valid && version == 6;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /** Absolute offset of the IP header in the backing buffer */
+    public int offset() {
+        return start;
+    }
+
+    /** Packet length according to the IP header */
+    public int length() {
+        return length;
+    }
+
+    /** Upper-layer protocol after any IPv6 extension headers */
+    public int protocol() {
+        return protocol;
+    }
+
+    /** Absolute offset of the upper-layer header in the backing buffer */
+    public int transportOffset() {
+        return transportOffset;
+    }
+
+    public int transportLength() {
+        return start + length - transportOffset;
+    }
+
+    /** Byte offset of this fragment within the original datagram */
+    public int fragmentOffset() {
+        return fragmentOffset;
+    }
+
+    public boolean hasMoreFragments() {
+        return moreFragments;
+    }
+
+    /** True when the transport header is present, i.e. not a non-initial fragment */
+    public boolean hasTransportHeader() {
+        return valid && fragmentOffset == 0;
+    }
+
+    public int hopLimit() {
+        return buffer.get(start + (version == 4 ? 8 : 7)) & 0xFF;
+    }
+
+    /** Absolute offset of the source address (4 bytes for IPv4, 16 for IPv6) */
+    public int sourceAddressOffset() {
+        return start + (version == 4 ? 12 : 8);
+    }
+
+    /** Absolute offset of the destination address (4 bytes for IPv4, 16 for IPv6) */
+    public int destinationAddressOffset() {
+        return start + (version == 4 ? 16 : 24);
+    }
+
+    public int addressLength() {
+        return version == 4 ? 4 : 16;
+    }
+
+    public int ipv4Source() {
+        return buffer.getInt(start + 12);
+    }
+
+    public int ipv4Destination() {
+        return buffer.getInt(start + 16);
+    }
+
+    /** Copy the source address into {@code dst}; returns the number of bytes written */
+    public int copySourceAddress(byte[] dst, int dstOffset) {
+        return copyAddress(sourceAddressOffset(), dst, dstOffset);
+    }
+
+    /** Copy the destination address into {@code dst}; returns the number of bytes written */
+    public int copyDestinationAddress(byte[] dst, int dstOffset) {
+        return copyAddress(destinationAddressOffset(), dst, dstOffset);
+    }
+
+    private int copyAddress(int offset, byte[] dst, int dstOffset) {
+        int len = addressLength();
+        for (int i = 0; i < len; i++) {
+            dst[dstOffset + i] = buffer.get(offset + i);
+        }
+        return len;
+    }
+
+    public int ipv4HeaderChecksum() {
+        return buffer.getShort(start + 10) & 0xFFFF;
+    }
+
+    /** Verify the IPv4 header checksum; always true for IPv6 which has none */
+    public boolean verifyIpv4HeaderChecksum() {
+        if (version != 4) {
+            return true;
+        }
+        return Checksums.fold(Checksums.sum(buffer, start, transportOffset - start, 0)) == 0;
+    }
+
+    /**
+     * Rewrite the IPv4 source address in place, incrementally fixing the IP
+     * header checksum and the TCP/UDP pseudo-header checksum
+     */
+    public void setIpv4Source(int address) {
+        rewriteIpv4Address(start + 12, address);
+    }
+
+    /**
+     * Rewrite the IPv4 destination address in place, incrementally fixing the IP
+     * header checksum and the TCP/UDP pseudo-header checksum
+     */
+    public void setIpv4Destination(int address) {
+        rewriteIpv4Address(start + 16, address);
+    }
+
+    private void rewriteIpv4Address(int offset, int address) {
+        int old = buffer.getInt(offset);
+        if (old == address) {
+            return;
+        }
+        buffer.putInt(offset, address);
+        int headerChecksum = buffer.getShort(start + 10) & 0xFFFF;
+        buffer.putShort(start + 10, (short) Checksums.update32(headerChecksum, old, address));
+        adjustTransportChecksum(old, address);
+    }
+
+    /**
+     * Decrement the hop limit / TTL in place, fixing the IPv4 header checksum.
+     * Returns the new value.
+     */
+    public int decrementHopLimit() {
+        if (version == 4) {
+            int word = buffer.getShort(start + 8) & 0xFFFF;
+            int ttl = word >>> 8;
+            if (ttl == 0) {
+                return 0;
+            }
+            int updated = word - 0x100;
+            buffer.putShort(start + 8, (short) updated);
+            int headerChecksum = buffer.getShort(start + 10) & 0xFFFF;
+            buffer.putShort(start + 10, (short) Checksums.update16(headerChecksum, word, updated));
+            return ttl - 1;
+        }
+        int hopLimit = buffer.get(start + 7) & 0xFF;
+        if (hopLimit == 0) {
+            return 0;
+        }
+        buffer.put(start + 7, (byte) (hopLimit - 1));
+        return hopLimit - 1;
+    }
+
+    /** Absolute offset of the TCP/UDP checksum field, or -1 when not applicable */
+    int transportChecksumOffset() {
+        if (!hasTransportHeader()) {
+            return -1;
+        }
+        if (protocol == PROTOCOL_TCP && transportLength() >= TcpHeaderView.MIN_HEADER_LENGTH) {
+            return transportOffset + 16;
+        }
+        if (protocol == PROTOCOL_UDP && transportLength() >= UdpHeaderView.HEADER_LENGTH) {
+            return transportOffset + 6;
+        }
+        return -1;
+    }
+
+    /** Fold a pseudo-header change (address rewrite) into the TCP/UDP checksum */
+    void adjustTransportChecksum(int oldValue, int newValue) {
+        int offset = transportChecksumOffset();
+        if (offset < 0) {
+            return;
+        }
+        int checksum = buffer.getShort(offset) & 0xFFFF;
+        if (protocol == PROTOCOL_UDP && version == 4 && checksum == 0) {
+            // IPv4 UDP checksum disabled by the sender
+            return;
+        }
+        int updated = Checksums.update32(checksum, oldValue, newValue);
+        if (protocol == PROTOCOL_UDP && updated == 0) {
+            updated = 0xFFFF;
+        }
+        buffer.putShort(offset, (short) updated);
+    }
+
+    /**
+     * Compute the TCP/UDP pseudo-header sum (addresses, protocol, length) as an
+     * unfolded accumulator suitable for {@link Checksums#sum}
+     */
+    public int pseudoHeaderSum() {
+        return pseudoHeaderSum(transportLength());
+    }
+
+    /**
+     * Pseudo-header sum for a transport segment of {@code segmentLength} bytes,
+     * e.g. the UDP length field when the IP payload carries trailing padding
+     */
+    public int pseudoHeaderSum(int segmentLength) {
+        int sum = Checksums.sum(buffer, sourceAddressOffset(), addressLength() * 2, 0);
+        long acc = (sum & 0xFFFFFFFFL) + protocol + segmentLength;
+        while ((acc >>> 32) != 0) {
+            acc = (acc & 0xFFFFFFFFL) + (acc >>> 32);
+        }
+        return (int) acc;
+    }
+}
@@ -0,0 +1,204 @@
+package com.falcon.securechat.vpn.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable flyweight view over the TCP header of a packet wrapped by an
+ * {@link IpPacketView}. Port setters update the checksum incrementally.
+ */
+public final class TcpHeaderView {
+    public static final int MIN_HEADER_LENGTH = 20;
+
+    public static final int FLAG_FIN = 0x01;
+    public static final int FLAG_SYN = 0x02;
+    public static final int FLAG_RST = 0x04;
+    public static final int FLAG_PSH = 0x08;
+    public static final int FLAG_ACK = 0x10;
+    public static final int FLAG_URG = 0x20;
+    public static final int FLAG_ECE = 0x40;
+    public static final int FLAG_CWR = 0x80;
+
+    public static final int OPTION_END = 0;
+    public static final int OPTION_NOP = 1;
+    public static final int OPTION_MSS = 2;
+    public static final int OPTION_WINDOW_SCALE = 3;
+    public static final int OPTION_SACK_PERMITTED = 4;
+    public static final int OPTION_SACK = 5;
+    public static final int OPTION_TIMESTAMPS = 8;
+
+    private IpPacketView ip;
+    private ByteBuffer buffer;
+    private int offset;
+    private int headerLength;
+    private boolean valid;
+
+    /**
+     * Point this view at the transport header of {@code ip}. Returns false if
+     * the packet is not an initial TCP segment with a well-formed header.
+     */
+    public boolean wrap(IpPacketView ip) {
+        this.ip = ip;
+        this.buffer = ip.buffer();
+        this.offset = ip.transportOffset();
+        this.valid = false;
+
+        if (!ip.hasTransportHeader() || ip.protocol() != IpPacketView.PROTOCOL_TCP
+                || ip.transportLength() < MIN_HEADER_LENGTH) {
+            return false;
+        }
+        headerLength = ((buffer.get(offset + 12) & 0xFF) >>> 4) << 2;
+        if (headerLength < MIN_HEADER_LENGTH || headerLength > ip.transportLength()) {
+            return false;
+        }
+        valid = true;
+        return true;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public int sourcePort() {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    public int destinationPort() {
+        return buffer.getShort(offset + 2) & 0xFFFF;
+    }
+
+    public long sequenceNumber() {
+        return buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+    }
+
+    public long acknowledgementNumber() {
+        return buffer.getInt(offset + 8) & 0xFFFFFFFFL;
+    }
+
+    public int headerLength() {
+        return headerLength;
+    }
+
+    public int flags() {
+        return buffer.get(offset + 13) & 0xFF;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags() & flag) != 0;
+    }
+
+    public int window() {
+        return buffer.getShort(offset + 14) & 0xFFFF;
+    }
+
+    public int checksum() {
+        return buffer.getShort(offset + 16) & 0xFFFF;
+    }
+
+    public int urgentPointer() {
+        return buffer.getShort(offset + 18) & 0xFFFF;
+    }
+
+    /** Absolute offset of the options area in the backing buffer */
+    public int optionsOffset() {
+        return offset + MIN_HEADER_LENGTH;
+    }
+
+    public int optionsLength() {
+        return headerLength - MIN_HEADER_LENGTH;
+    }
+
+    /** Absolute offset of the segment payload in the backing buffer */
+    public int payloadOffset() {
+        return offset + headerLength;
+    }
+
+    public int payloadLength() {
+        return ip.transportLength() - headerLength;
+    }
+
+    /**
+     * Find an option by kind. Returns the absolute offset of its kind byte, or
+     * -1 when absent or the options area is malformed.
+     */
+    public int findOption(int kind) {
+        int cursor = optionsOffset();
+        int end = cursor + optionsLength();
+        while (cursor < end) {
+            int current = buffer.get(cursor) & 0xFF;
+            if (current == OPTION_END) {
+                return -1;
+            }
+            if (current == OPTION_NOP) {
+                cursor++;
+                continue;
+            }
+            if (cursor + 1 >= end) {
+                return -1;
+            }
+            int optionLength = buffer.get(cursor + 1) & 0xFF;
+            if (optionLength < 2 || cursor + optionLength > end) {
+                return -1;
+            }
+            if (current == kind) {
+                return cursor;
+            }
+            cursor += optionLength;
+        }
+        return -1;
+    }
+
+    /** MSS option value, or -1 when the segment carries none */
+    public int maxSegmentSize() {
+        int option = findOption(OPTION_MSS);
+        if (option < 0 || (buffer.get(option + 1) & 0xFF) != 4) {
+            return -1;
+        }
+        return buffer.getShort(option + 2) & 0xFFFF;
+    }
+
+    /**
+     * Clamp the MSS option to {@code mss} in place, e.g. to fit the tunnel MTU.
+     * Returns true if the segment was modified.
+     */
+    public boolean clampMaxSegmentSize(int mss) {
+        int option = findOption(OPTION_MSS);
+        if (option < 0 || (buffer.get(option + 1) & 0xFF) != 4) {
+            return false;
+        }
+        int current = buffer.getShort(option + 2) & 0xFFFF;
+        if (current <= mss) {
+            return false;
+        }
+        buffer.putShort(option + 2, (short) mss);
+        updateChecksum(current, mss);
+        return true;
+    }
+
+    public void setSourcePort(int port) {
+        rewritePort(offset, port);
+    }
+
+    public void setDestinationPort(int port) {
+        rewritePort(offset + 2, port);
+    }
+
+    private void rewritePort(int portOffset, int port) {
+        int old = buffer.getShort(portOffset) & 0xFFFF;
+        if (old == port) {
+            return;
+        }
+        buffer.putShort(portOffset, (short) port);
+        updateChecksum(old, port);
+    }
+
+    private void updateChecksum(int oldWord, int newWord) {
+        int checksum = buffer.getShort(offset + 16) & 0xFFFF;
+        buffer.putShort(offset + 16, (short) Checksums.update16(checksum, oldWord, newWord));
+    }
+
+    /** Verify the segment checksum including the pseudo-header */
+    public boolean verifyChecksum() {
+        int sum = Checksums.sum(buffer, offset, ip.transportLength(), ip.pseudoHeaderSum());
+        return Checksums.fold(sum) == 0;
+    }
+}
@@ -0,0 +1,103 @@
+package com.falcon.securechat.vpn.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable flyweight view over the UDP header of a packet wrapped by an
+ * {@link IpPacketView}. Port setters update the checksum incrementally.
+ */
+public final class UdpHeaderView {
+    public static final int HEADER_LENGTH = 8;
+
+    private IpPacketView ip;
+    private ByteBuffer buffer;
+    private int offset;
+    private boolean valid;
+
+    /**
+     * Point this view at the transport header of {@code ip}. Returns false if
+     * the packet is not an initial UDP datagram with a well-formed header.
+     */
+    public boolean wrap(IpPacketView ip) {
+        this.ip = ip;
+        this.buffer = ip.buffer();
+        this.offset = ip.transportOffset();
+        this.valid = false;
+
+        if (!ip.hasTransportHeader() || ip.protocol() != IpPacketView.PROTOCOL_UDP
+                || ip.transportLength() < HEADER_LENGTH) {
+            return false;
+        }
+        int length = buffer.getShort(offset + 4) & 0xFFFF;
+        if (length < HEADER_LENGTH || length > ip.transportLength()) {
+            return false;
+        }
+        valid = true;
+        return true;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public int sourcePort() {
+        return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    public int destinationPort() {
+        return buffer.getShort(offset + 2) & 0xFFFF;
+    }
+
+    /** Datagram length including the 8-byte header */
+    public int length() {
+        return buffer.getShort(offset + 4) & 0xFFFF;
+    }
+
+    public int checksum() {
+        return buffer.getShort(offset + 6) & 0xFFFF;
+    }
+
+    /** Absolute offset of the datagram payload in the backing buffer */
+    public int payloadOffset() {
+        return offset + HEADER_LENGTH;
+    }
+
+    public int payloadLength() {
+        return length() - HEADER_LENGTH;
+    }
+
+    public void setSourcePort(int port) {
+        rewritePort(offset, port);
+    }
+
+    public void setDestinationPort(int port) {
+        rewritePort(offset + 2, port);
+    }
+
+    private void rewritePort(int portOffset, int port) {
+        int old = buffer.getShort(portOffset) & 0xFFFF;
+        if (old == port) {
+            return;
+        }
+        buffer.putShort(portOffset, (short) port);
+        int checksum = buffer.getShort(offset + 6) & 0xFFFF;
+        if (checksum == 0 && ip.version() == 4) {
+            // IPv4 UDP checksum disabled by the sender
+            return;
+        }
+        int updated = Checksums.update16(checksum, old, port);
+        buffer.putShort(offset + 6, (short) (updated == 0 ? 0xFFFF : updated));
+    }
+
+    /** Verify the datagram checksum including the pseudo-header */
+    public boolean verifyChecksum() {
+        int checksum = checksum();
+        if (checksum == 0) {
+            // Optional over IPv4, never valid over IPv6
+            return ip.version() == 4;
+        }
+        int length = length();
+        int sum = Checksums.sum(buffer, offset, length, ip.pseudoHeaderSum(length));
+        return Checksums.fold(sum) == 0;
+    }
+}
@@ -0,0 +1,271 @@
+package com.falcon.securechat.vpn.timer;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical hashed timing wheel for tunnel timers (keepalives, rekey and
+ * handshake deadlines, idle eviction, cache TTLs).
+ *
+ * Not thread-safe: it is owned and advanced by the data-plane thread. Timer
+ * entries live in parallel primitive arrays linked into slot lists by index,
+ * so schedule and cancel are O(1) and recycle entries instead of allocating.
+ * Timers are identified by a handle that combines the entry index with a
+ * generation counter, which makes cancelling an already-fired handle harmless.
+ */
+public final class TimingWheel {
+
+    /**
+     * Invoked on the data-plane thread when a timer expires. The handle is
+     * already released, so the callback may freely schedule new timers and
+     * cancel others, including ones due on the same tick.
+     */
+    public interface Callback {
+        void onTimer(long handle, Object attachment);
+    }
+
+    public static final long INVALID_HANDLE = -1L;
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int NONE = -1;
+
+    private final long tickMillis;
+    private final int[] slotHeads = new int[LEVELS * SLOTS];
+
+    // Entry storage, indexed by entry id
+    private int[] next;
+    private int[] prev;
+    private int[] slotOf;
+    private int[] generation;
+    private long[] deadlineTick;
+    private Callback[] callbacks;
+    private Object[] attachments;
+
+    private int freeHead = NONE;
+    private int allocated;
+    private int size;
+    private long currentTick;
+    private boolean started;
+
+    public TimingWheel(long tickMillis, int initialCapacity) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        this.tickMillis = tickMillis;
+        int capacity = Math.max(16, initialCapacity);
+        next = new int[capacity];
+        prev = new int[capacity];
+        slotOf = new int[capacity];
+        generation = new int[capacity];
+        deadlineTick = new long[capacity];
+        callbacks = new Callback[capacity];
+        attachments = new Object[capacity];
+        Arrays.fill(slotHeads, NONE);
+    }
+
+    /**
+     * Schedule {@code callback} to run once {@code delayMillis} have elapsed
+     * past the wheel's current time. Returns a handle for {@link #cancel}.
+     */
+    public long schedule(long delayMillis, Callback callback, Object attachment) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback must not be null");
+        }
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        int entry = allocate();
+        deadlineTick[entry] = currentTick + ticks;
+        callbacks[entry] = callback;
+        attachments[entry] = attachment;
+        insert(entry);
+        size++;
+        return ((long) generation[entry] << 32) | entry;
+    }
+
+    /**
+     * Cancel a pending timer. Returns false if it already fired or was cancelled.
+     */
+    public boolean cancel(long handle) {
+        if (handle == INVALID_HANDLE) {
+            return false;
+        }
+        int entry = (int) handle;
+        if (entry < 0 || entry >= allocated || slotOf[entry] == NONE
+                || generation[entry] != (int) (handle >>> 32)) {
+            return false;
+        }
+        unlink(entry);
+        release(entry);
+        size--;
+        return true;
+    }
+
+    /**
+     * Advance the wheel to {@code nowMillis}, firing every timer whose deadline
+     * has passed. The first call only anchors the wheel to the caller's clock.
+     */
+    public int advance(long nowMillis) {
+        long targetTick = nowMillis / tickMillis;
+        if (!started) {
+            started = true;
+            rebase(targetTick);
+            return 0;
+        }
+        int fired = 0;
+        while (currentTick < targetTick) {
+            if (size == 0) {
+                currentTick = targetTick;
+                break;
+            }
+            currentTick++;
+            cascade();
+            fired += expire((int) (currentTick & SLOT_MASK));
+        }
+        return fired;
+    }
+
+    /** Number of live timers */
+    public int size() {
+        return size;
+    }
+
+    public long tickMillis() {
+        return tickMillis;
+    }
+
+    /** Current wheel time in milliseconds, as of the last {@link #advance} */
+    public long nowMillis() {
+        return currentTick * tickMillis;
+    }
+
+    private void rebase(long tick) {
+        long delta = tick - currentTick;
+        currentTick = tick;
+        if (size == 0 || delta == 0) {
+            return;
+        }
+        // Timers scheduled before the first advance were relative to tick zero
+        for (int entry = 0; entry < allocated; entry++) {
+            if (slotOf[entry] != NONE) {
+                unlink(entry);
+                deadlineTick[entry] += delta;
+                insert(entry);
+            }
+        }
+    }
+
+    /** Redistribute higher-level slots whose lower level just wrapped */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if (((currentTick >>> ((level - 1) * SLOT_BITS)) & SLOT_MASK) != 0) {
+                return;
+            }
+            int slot = level * SLOTS + (int) ((currentTick >>> (level * SLOT_BITS)) & SLOT_MASK);
+            int entry = slotHeads[slot];
+            slotHeads[slot] = NONE;
+            while (entry != NONE) {
+                int following = next[entry];
+                slotOf[entry] = NONE;
+                insert(entry);
+                entry = following;
+            }
+        }
+    }
+
+    private int expire(int slot) {
+        int fired = 0;
+        int entry;
+        // Pop from the slot head one entry at a time: a callback may cancel or
+        // schedule other timers, so no link is held across it
+        while ((entry = slotHeads[slot]) != NONE) {
+            unlink(entry);
+            if (deadlineTick[entry] > currentTick) {
+                // Clamped far-future timer that wrapped back into this slot
+                insert(entry);
+            } else {
+                long handle = ((long) generation[entry] << 32) | entry;
+                Callback callback = callbacks[entry];
+                Object attachment = attachments[entry];
+                release(entry);
+                size--;
+                fired++;
+                callback.onTimer(handle, attachment);
+            }
+        }
+        return fired;
+    }
+
+    private void insert(int entry) {
+        long deadline = deadlineTick[entry];
+        long delta = deadline - currentTick;
+        int slot;
+        if (delta <= 0) {
+            // Overdue after a cascade; fire on the tick currently being processed
+            slot = (int) (currentTick & SLOT_MASK);
+        } else if (delta < (1L << SLOT_BITS)) {
+            slot = (int) (deadline & SLOT_MASK);
+        } else if (delta < (1L << (2 * SLOT_BITS))) {
+            slot = SLOTS + (int) ((deadline >>> SLOT_BITS) & SLOT_MASK);
+        } else if (delta < (1L << (3 * SLOT_BITS))) {
+            slot = 2 * SLOTS + (int) ((deadline >>> (2 * SLOT_BITS)) & SLOT_MASK);
+        } else {
+            long clamped = Math.min(deadline, currentTick + (1L << (4 * SLOT_BITS)) - 1);
+            slot = 3 * SLOTS + (int) ((clamped >>> (3 * SLOT_BITS)) & SLOT_MASK);
+        }
+        int head = slotHeads[slot];
+        next[entry] = head;
+        prev[entry] = NONE;
+        if (head != NONE) {
+            prev[head] = entry;
+        }
+        slotHeads[slot] = entry;
+        slotOf[entry] = slot;
+    }
+
+    private void unlink(int entry) {
+        int slot = slotOf[entry];
+        if (prev[entry] != NONE) {
+            next[prev[entry]] = next[entry];
+        } else {
+            slotHeads[slot] = next[entry];
+        }
+        if (next[entry] != NONE) {
+            prev[next[entry]] = prev[entry];
+        }
+        slotOf[entry] = NONE;
+    }
+
+    private int allocate() {
+        if (freeHead != NONE) {
+            int entry = freeHead;
+            freeHead = next[entry];
+            return entry;
+        }
+        if (allocated == next.length) {
+            grow();
+        }
+        int entry = allocated++;
+        slotOf[entry] = NONE;
+        return entry;
+    }
+
+    private void release(int entry) {
+        generation[entry]++;
+        callbacks[entry] = null;
+        attachments[entry] = null;
+        next[entry] = freeHead;
+        freeHead = entry;
+    }
+
+    private void grow() {
+        int capacity = next.length << 1;
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        slotOf = Arrays.copyOf(slotOf, capacity);
+        generation = Arrays.copyOf(generation, capacity);
+        deadlineTick = Arrays.copyOf(deadlineTick, capacity);
+        callbacks = Arrays.copyOf(callbacks, capacity);
+        attachments = Arrays.copyOf(attachments, capacity);
+    }
+}
@@ -0,0 +1,116 @@
+package com.falcon.securechat.vpn.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    @Test
+    public void firesTimersInDeadlineOrder() {
+        TimingWheel wheel = new TimingWheel(10, 16);
+        wheel.advance(0);
+        List<Object> fired = new ArrayList<>();
+        TimingWheel.Callback record = (handle, attachment) -> fired.add(attachment);
+        wheel.schedule(30, record, "c");
+        wheel.schedule(10, record, "a");
+        wheel.schedule(20, record, "b");
+
+        assertEquals(1, wheel.advance(15));
+        assertEquals(2, wheel.advance(40));
+        assertEquals(3, fired.size());
+        assertEquals("a", fired.get(0));
+        assertEquals("b", fired.get(1));
+        assertEquals("c", fired.get(2));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelledTimerDoesNotFire() {
+        TimingWheel wheel = new TimingWheel(10, 16);
+        wheel.advance(0);
+        List<Object> fired = new ArrayList<>();
+        long handle = wheel.schedule(20, (h, attachment) -> fired.add(attachment), "x");
+
+        assertTrue(wheel.cancel(handle));
+        assertFalse(wheel.cancel(handle));
+        assertEquals(0, wheel.advance(100));
+        assertTrue(fired.isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void callbackCanCancelTimerInSameSlot() {
+        TimingWheel wheel = new TimingWheel(10, 16);
+        wheel.advance(0);
+        List<Object> fired = new ArrayList<>();
+        long[] handles = new long[3];
+        TimingWheel.Callback record = (handle, attachment) -> fired.add(attachment);
+        // Slot lists are LIFO, so the last scheduled timer fires first
+        handles[0] = wheel.schedule(50, record, "first");
+        handles[1] = wheel.schedule(50, record, "cancelled");
+        handles[2] = wheel.schedule(50, (handle, attachment) -> {
+            fired.add(attachment);
+            assertTrue(wheel.cancel(handles[1]));
+        }, "canceller");
+        wheel.schedule(60, record, "later");
+
+        assertEquals(2, wheel.advance(50));
+        assertEquals(2, fired.size());
+        assertTrue(fired.contains("canceller"));
+        assertTrue(fired.contains("first"));
+        assertEquals(1, wheel.size());
+
+        assertEquals(1, wheel.advance(60));
+        assertEquals("later", fired.get(2));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void callbackCanRescheduleItselfAndNeighbour() {
+        TimingWheel wheel = new TimingWheel(10, 16);
+        wheel.advance(0);
+        List<String> fired = new ArrayList<>();
+        long[] neighbour = new long[1];
+        TimingWheel.Callback record = (handle, attachment) -> fired.add((String) attachment);
+        neighbour[0] = wheel.schedule(30, record, "neighbour");
+        wheel.schedule(30, new TimingWheel.Callback() {
+            private boolean rescheduled;
+
+            @Override
+            public void onTimer(long handle, Object attachment) {
+                fired.add((String) attachment);
+                if (!rescheduled) {
+                    rescheduled = true;
+                    wheel.schedule(30, this, attachment);
+                    assertTrue(wheel.cancel(neighbour[0]));
+                    neighbour[0] = wheel.schedule(30, record, "neighbour");
+                }
+            }
+        }, "self");
+
+        assertEquals(1, wheel.advance(30));
+        assertEquals(2, wheel.size());
+        assertEquals(2, wheel.advance(60));
+        assertEquals(3, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void timersBeyondFirstLevelCascade() {
+        TimingWheel wheel = new TimingWheel(1, 16);
+        wheel.advance(1000);
+        List<Object> fired = new ArrayList<>();
+        wheel.schedule(70_000, (handle, attachment) -> fired.add(attachment), "far");
+
+        wheel.advance(1000 + 69_999);
+        assertTrue(fired.isEmpty());
+        wheel.advance(1000 + 70_000);
+        assertEquals(1, fired.size());
+    }
+}
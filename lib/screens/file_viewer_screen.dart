@@ -22,18 +22,23 @@ class FileViewerScreen extends StatefulWidget {
 }
 
 class _FileViewerScreenState extends State<FileViewerScreen> {
+  ScreenshotProtectionService? _screenshotService;
+
+  // Per-screen hold, so closing the viewer cannot lift app-wide protection
+  String get _protectionToken => 'file_viewer:${identityHashCode(this)}';
+
   @override
   void initState() {
     super.initState();
-    // Enable screenshot protection when viewing files
+    // Hold screenshot protection while viewing files
     _enableScreenshotProtection();
   }
 
   Future<void> _enableScreenshotProtection() async {
     try {
-      final screenshotService =
+      _screenshotService =
           Provider.of<ScreenshotProtectionService>(context, listen: false);
-      await screenshotService.enableScreenshotProtection();
+      await _screenshotService!.acquire(_protectionToken);
     } catch (e) {
       debugPrint('Failed to enable screenshot protection: $e');
     }
@@ -254,9 +259,7 @@ class _FileViewerScreenState extends State<FileViewerScreen> {
 
   Future<void> _disableScreenshotProtection() async {
     try {
-      final screenshotService =
-          Provider.of<ScreenshotProtectionService>(context, listen: false);
-      await screenshotService.disableScreenshotProtection();
+      await _screenshotService?.release(_protectionToken);
     } catch (e) {
       debugPrint('Failed to disable screenshot protection: $e');
     }
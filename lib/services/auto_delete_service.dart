@@ -94,6 +94,7 @@ class AutoDeleteService extends ChangeNotifier {
       ''', [cutoffTimestamp]);
 
       if (deletedMessages > 0) {
+        await DatabaseManager.deleteSearchIndexBefore(cutoffTimestamp);
         debugPrint('Deleted $deletedMessages expired messages');
         _lastCleanupTime = DateTime.now();
         notifyListeners();
@@ -3,6 +3,9 @@ import 'dart:async';
 import 'package:sqflite_sqlcipher/sqflite.dart';
 import 'package:path/path.dart';
 import 'package:path_provider/path_provider.dart';
+import 'package:flutter/foundation.dart';
+import 'message_crypto_service.dart';
+import 'message_search_service.dart';
 
 class DatabaseManager {
   static Database? _database;
@@ -15,10 +18,22 @@ class DatabaseManager {
   static const String _conversationsTable = 'conversations';
   static const String _contactsTable = 'contacts';
 
+  // Use a strong encryption key - in production, this should be derived from user credentials
+  // or stored securely using flutter_secure_storage
+  static const String _encryptionKey = 'falcon_secure_messaging_app_2025';
+
+  // Native message search index: built by the first search, then reopened
+  // with the database so later changes are mirrored. Resolves to whether it
+  // is open; null until the database opens.
+  static Future<bool>? _searchIndexReady;
+  static bool _searchIndexUnavailable = false;
+
   /// Get database instance (singleton)
   static Future<Database> get database async {
     if (_database != null) return _database!;
     _database = await _initDatabase();
+    // Never builds an index; that waits for the first search
+    _searchIndexReady = _openSearchIndex(create: false);
     return _database!;
   }
 
@@ -27,13 +42,9 @@ class DatabaseManager {
     final documentsDirectory = await getApplicationDocumentsDirectory();
     final path = join(documentsDirectory.path, _databaseName);
 
-    // Use a strong encryption key - in production, this should be derived from user credentials
-    // or stored securely using flutter_secure_storage
-    final encryptionKey = 'falcon_secure_messaging_app_2025';
-
     return await openDatabase(
       path,
-      password: encryptionKey,
+      password: _encryptionKey,
       version: _databaseVersion,
       onCreate: _onCreate,
       onUpgrade: _onUpgrade,
@@ -177,6 +188,10 @@ class DatabaseManager {
       conflictAlgorithm: ConflictAlgorithm.replace,
     );
 
+    // Replacing a stored message must not leave its old text searchable
+    unawaited(_whenSearchIndexOpen(
+        () => MessageSearchService.indexMessages([message], replace: true)));
+
     // Update conversation
     await _updateConversation(
       message['conversation_id'],
@@ -204,14 +219,18 @@ class DatabaseManager {
   }
 
   /// Get messages between two users
+  ///
+  /// With a [sharedKey], the page's `encrypted_content` is decrypted natively
+  /// in one batch and returned as `message_text`.
   static Future<List<Map<String, dynamic>>> getMessagesBetweenUsers(
     String user1Id,
     String user2Id, {
     int limit = 50,
     int offset = 0,
+    String? sharedKey,
   }) async {
     final db = await database;
-    return await db.query(
+    final rows = await db.query(
       _messagesTable,
       where:
           '(sender_id = ? AND recipient_id = ?) OR (sender_id = ? AND recipient_id = ?)',
@@ -220,6 +239,160 @@ class DatabaseManager {
       limit: limit,
       offset: offset,
     );
+    if (sharedKey == null) return rows;
+    return _decryptMessageRows(rows, sharedKey);
+  }
+
+  /// Decrypt `encrypted_content` of a page of rows in a single native batch
+  static Future<List<Map<String, dynamic>>> _decryptMessageRows(
+    List<Map<String, dynamic>> rows,
+    String sharedKey,
+  ) async {
+    final indexes = <int>[];
+    final payloads = <String>[];
+    for (var i = 0; i < rows.length; i++) {
+      final content = rows[i]['encrypted_content'];
+      if (content is String && content.isNotEmpty) {
+        indexes.add(i);
+        payloads.add(content);
+      }
+    }
+    if (payloads.isEmpty) return rows;
+
+    final List<String?> plaintexts;
+    try {
+      plaintexts =
+          await MessageCryptoService.decryptMessages(payloads, sharedKey);
+    } catch (e) {
+      debugPrint('Batch message decryption failed: $e');
+      return rows;
+    }
+
+    // Query rows are read-only; undecryptable rows keep their stored text
+    final result = [for (final row in rows) Map<String, dynamic>.from(row)];
+    for (var j = 0; j < indexes.length; j++) {
+      final text = plaintexts[j];
+      if (text != null) {
+        result[indexes[j]]['message_text'] = text;
+      }
+    }
+    return result;
+  }
+
+  /// Full-text message search, best match first.
+  ///
+  /// Uses the native search index; falls back to a LIKE scan where the index
+  /// is unavailable.
+  static Future<List<Map<String, dynamic>>> searchMessages(
+    String query, {
+    int limit = 50,
+    int offset = 0,
+  }) async {
+    final db = await database;
+    if (await _ensureSearchIndex()) {
+      try {
+        final page = await MessageSearchService.search(query,
+            offset: offset, limit: limit);
+        if (page.messageIds.isEmpty) return [];
+
+        final rows = await db.query(
+          _messagesTable,
+          where:
+              'id IN (${List.filled(page.messageIds.length, '?').join(',')})',
+          whereArgs: page.messageIds,
+        );
+        // Restore the index ranking; ids no longer in the table drop out
+        final byId = {for (final row in rows) row['id'] as String: row};
+        return [
+          for (final id in page.messageIds)
+            if (byId[id] != null) byId[id]!,
+        ];
+      } catch (e) {
+        debugPrint('Search index query failed: $e');
+      }
+    }
+
+    return await db.query(
+      _messagesTable,
+      where: 'message_text LIKE ?',
+      whereArgs: ['%$query%'],
+      orderBy: 'timestamp DESC',
+      limit: limit,
+      offset: offset,
+    );
+  }
+
+  /// Drop messages older than [cutoff] from the search index
+  static Future<void> deleteSearchIndexBefore(int cutoff) {
+    return _whenSearchIndexOpen(
+        () => MessageSearchService.deleteBefore(cutoff));
+  }
+
+  /// Run [update] against the search index if one is open, once it has
+  /// caught up with the message table
+  static Future<void> _whenSearchIndexOpen(
+      Future<Object?> Function() update) async {
+    var ready = _searchIndexReady;
+    while (ready != null &&
+        !await ready &&
+        !identical(ready, _searchIndexReady)) {
+      // A first search started building the index meanwhile
+      ready = _searchIndexReady;
+    }
+    if (ready == null || !await ready) return;
+    try {
+      await update();
+    } catch (e) {
+      debugPrint('Search index update failed: $e');
+    }
+  }
+
+  /// Open the native search index, building it on first use
+  static Future<bool> _ensureSearchIndex() async {
+    final opening = _searchIndexReady;
+    if (opening != null && await opening) return true;
+    if (_searchIndexUnavailable) return false;
+    // No index was built yet; concurrent searches share this one build
+    if (identical(_searchIndexReady, opening)) {
+      _searchIndexReady = _openSearchIndex(create: true);
+    }
+    return _searchIndexReady!;
+  }
+
+  /// Open the index and backfill messages it is missing. Without [create]
+  /// only an index an earlier search built is opened.
+  static Future<bool> _openSearchIndex({required bool create}) async {
+    try {
+      final db = await database;
+      final indexed = create
+          ? await MessageSearchService.open(_encryptionKey)
+          : await MessageSearchService.reopen(_encryptionKey);
+      if (indexed == null) return false;
+
+      final stored = (await db.rawQuery(
+              'SELECT COUNT(*) as count FROM $_messagesTable'))
+          .first['count'] as int;
+      if (indexed != stored) {
+        // Ids already in the index are skipped natively, so this is idempotent
+        var lastRowId = 0;
+        while (true) {
+          final rows = await db.rawQuery(
+            'SELECT rowid, id, message_text, timestamp FROM $_messagesTable '
+            'WHERE rowid > ? ORDER BY rowid LIMIT 1000',
+            [lastRowId],
+          );
+          if (rows.isEmpty) break;
+          await MessageSearchService.indexMessages(rows);
+          lastRowId = rows.last['rowid'] as int;
+        }
+      }
+      return true;
+    } catch (e) {
+      // No native index on this platform, or it failed to open
+      debugPrint('Search index unavailable: $e');
+      _searchIndexUnavailable = true;
+      return false;
+    }
   }
 
   /// Update message delivery status
@@ -350,6 +523,7 @@ class DatabaseManager {
       await txn.delete(_contactsTable);
       await txn.delete(_usersTable);
     });
+    await _whenSearchIndexOpen(MessageSearchService.clear);
   }
 
   /// Get database statistics
@@ -378,6 +552,7 @@ class DatabaseManager {
     if (_database != null) {
       await _database!.close();
       _database = null;
+      _searchIndexReady = null;
     }
   }
 }
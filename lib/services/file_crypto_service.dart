@@ -0,0 +1,119 @@
+import 'dart:typed_data';
+import 'package:flutter/services.dart';
+
+/// Progress update for a native file encryption job
+class FileCryptoProgress {
+  final String jobId;
+  final String type;
+  final String operation;
+  final int completedChunks;
+  final int totalChunks;
+  final int bytesProcessed;
+  final int totalBytes;
+  final double? megabytesPerSecond;
+
+  const FileCryptoProgress({
+    required this.jobId,
+    required this.type,
+    required this.operation,
+    required this.completedChunks,
+    required this.totalChunks,
+    required this.bytesProcessed,
+    required this.totalBytes,
+    this.megabytesPerSecond,
+  });
+
+  factory FileCryptoProgress.fromMap(Map<dynamic, dynamic> map) {
+    return FileCryptoProgress(
+      jobId: map['jobId'] as String,
+      type: map['type'] as String,
+      operation: map['operation'] as String,
+      completedChunks: (map['completedChunks'] as num).toInt(),
+      totalChunks: (map['totalChunks'] as num).toInt(),
+      bytesProcessed: (map['bytesProcessed'] as num).toInt(),
+      totalBytes: (map['totalBytes'] as num).toInt(),
+      megabytesPerSecond: (map['megabytesPerSecond'] as num?)?.toDouble(),
+    );
+  }
+
+  bool get isFinished => type != 'progress';
+
+  double get fraction => totalBytes == 0 ? 1.0 : bytesProcessed / totalBytes;
+}
+
+/// Chunked file encryption backed by the native `falcon/file_crypto` plugin.
+///
+/// Files are processed in independently authenticated chunks on native
+/// threads with constant memory use. A failed or cancelled job can be resumed
+/// by passing the last reported [FileCryptoProgress.completedChunks].
+class FileCryptoService {
+  static const MethodChannel _channel = MethodChannel('falcon/file_crypto');
+  static const EventChannel _progressChannel =
+      EventChannel('falcon/file_crypto/progress');
+
+  static Stream<FileCryptoProgress>? _progress;
+
+  /// Progress events for all jobs
+  static Stream<FileCryptoProgress> get progress {
+    return _progress ??= _progressChannel
+        .receiveBroadcastStream()
+        .map((event) => FileCryptoProgress.fromMap(event as Map))
+        .asBroadcastStream();
+  }
+
+  /// Progress events for a single job
+  static Stream<FileCryptoProgress> progressFor(String jobId) {
+    return progress.where((p) => p.jobId == jobId);
+  }
+
+  /// Encrypt [inputPath] into [outputPath]
+  ///
+  /// [chunkSize] is clamped to 4 KiB..4 MiB. A resume restarts from chunk 0
+  /// when the input no longer matches the partially written output.
+  static Future<FileCryptoProgress> encryptFile({
+    required String jobId,
+    required String inputPath,
+    required String outputPath,
+    required Uint8List key,
+    int resumeFromChunk = 0,
+    int? chunkSize,
+  }) {
+    return _run('encryptFile', {
+      'jobId': jobId,
+      'inputPath': inputPath,
+      'outputPath': outputPath,
+      'key': key,
+      'resumeFromChunk': resumeFromChunk,
+      if (chunkSize != null) 'chunkSize': chunkSize,
+    });
+  }
+
+  /// Decrypt [inputPath] into [outputPath]
+  static Future<FileCryptoProgress> decryptFile({
+    required String jobId,
+    required String inputPath,
+    required String outputPath,
+    required Uint8List key,
+    int resumeFromChunk = 0,
+  }) {
+    return _run('decryptFile', {
+      'jobId': jobId,
+      'inputPath': inputPath,
+      'outputPath': outputPath,
+      'key': key,
+      'resumeFromChunk': resumeFromChunk,
+    });
+  }
+
+  /// Cancel a running job; returns false if no such job is running
+  static Future<bool> cancel(String jobId) async {
+    final result = await _channel.invokeMethod('cancel', {'jobId': jobId});
+    return result == true;
+  }
+
+  static Future<FileCryptoProgress> _run(
+      String method, Map<String, dynamic> arguments) async {
+    final result = await _channel.invokeMethod(method, arguments);
+    return FileCryptoProgress.fromMap(result as Map);
+  }
+}
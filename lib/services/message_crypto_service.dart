@@ -0,0 +1,118 @@
+import 'dart:convert';
+import 'dart:typed_data';
+import 'package:crypto/crypto.dart';
+import 'package:flutter/services.dart';
+
+/// Batch message encryption backed by the native `falcon/crypto` channel.
+///
+/// A whole batch crosses the platform channel as one binary payload and is
+/// processed with AES-256-GCM on a native thread pool, so opening a long
+/// conversation does not run per-byte crypto on the UI isolate.
+class MessageCryptoService {
+  static const BasicMessageChannel<ByteData> _channel =
+      BasicMessageChannel<ByteData>('falcon/crypto', BinaryCodec());
+
+  static const int _opEncrypt = 1;
+  static const int _opDecrypt = 2;
+  static const int _statusOk = 0;
+  static const int _keyLength = 32;
+
+  /// Derive the 256-bit AES key for a shared key string
+  static Uint8List deriveKey(String sharedKey) {
+    return Uint8List.fromList(
+        sha256.convert(utf8.encode('falcon_msg_$sharedKey')).bytes);
+  }
+
+  /// Encrypt raw payloads with a 32-byte key; each result is
+  /// nonce || ciphertext || tag
+  static Future<List<Uint8List?>> encryptBatch(
+      List<Uint8List> payloads, Uint8List key) {
+    return _send(_opEncrypt, payloads, key);
+  }
+
+  /// Decrypt raw payloads; failed items come back as null
+  static Future<List<Uint8List?>> decryptBatch(
+      List<Uint8List> payloads, Uint8List key) {
+    return _send(_opDecrypt, payloads, key);
+  }
+
+  /// Encrypt message texts to base64 strings
+  static Future<List<String?>> encryptMessages(
+      List<String> messages, String sharedKey) async {
+    final results = await encryptBatch(
+      messages.map((m) => Uint8List.fromList(utf8.encode(m))).toList(),
+      deriveKey(sharedKey),
+    );
+    return results.map((r) => r == null ? null : base64.encode(r)).toList();
+  }
+
+  /// Decrypt base64 strings produced by [encryptMessages]
+  static Future<List<String?>> decryptMessages(
+      List<String> encrypted, String sharedKey) async {
+    final payloads = <Uint8List>[];
+    for (final item in encrypted) {
+      try {
+        payloads.add(base64.decode(item));
+      } catch (_) {
+        // Keeps indexes aligned; an empty payload always fails authentication
+        payloads.add(Uint8List(0));
+      }
+    }
+    final results = await decryptBatch(payloads, deriveKey(sharedKey));
+    return results
+        .map((r) => r == null ? null : utf8.decode(r, allowMalformed: true))
+        .toList();
+  }
+
+  static Future<List<Uint8List?>> _send(
+      int op, List<Uint8List> payloads, Uint8List key) async {
+    if (key.length != _keyLength) {
+      throw ArgumentError.value(
+          key.length, 'key', 'AES-256 requires a $_keyLength-byte key');
+    }
+    if (payloads.isEmpty) {
+      return <Uint8List?>[];
+    }
+
+    var size = 1 + 1 + key.length + 4;
+    for (final payload in payloads) {
+      size += 4 + payload.length;
+    }
+
+    final request = Uint8List(size);
+    final header = ByteData.view(request.buffer);
+    var offset = 0;
+    header.setUint8(offset++, op);
+    header.setUint8(offset++, key.length);
+    request.setRange(offset, offset + key.length, key);
+    offset += key.length;
+    header.setUint32(offset, payloads.length);
+    offset += 4;
+    for (final payload in payloads) {
+      header.setUint32(offset, payload.length);
+      offset += 4;
+      request.setRange(offset, offset + payload.length, payload);
+      offset += payload.length;
+    }
+
+    final reply = await _channel.send(ByteData.view(request.buffer));
+    if (reply == null || reply.getUint8(0) != _statusOk) {
+      throw PlatformException(
+          code: 'CRYPTO_BATCH_FAILED',
+          message: 'Native crypto rejected the batch');
+    }
+
+    final count = reply.getUint32(1);
+    final results = List<Uint8List?>.filled(count, null);
+    var cursor = 5;
+    for (var i = 0; i < count; i++) {
+      final length = reply.getInt32(cursor);
+      cursor += 4;
+      if (length >= 0) {
+        results[i] = Uint8List.sublistView(reply, cursor, cursor + length);
+        cursor += length;
+      }
+    }
+    return results;
+  }
+}
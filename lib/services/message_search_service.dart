@@ -0,0 +1,174 @@
+import 'dart:convert';
+import 'dart:typed_data';
+import 'package:crypto/crypto.dart';
+import 'package:flutter/services.dart';
+
+/// One page of ranked search results
+class MessageSearchPage {
+  /// Matching messages across all pages
+  final int total;
+
+  /// Message ids on this page, best match first
+  final List<String> messageIds;
+
+  const MessageSearchPage(this.total, this.messageIds);
+
+  static const MessageSearchPage empty = MessageSearchPage(0, <String>[]);
+}
+
+/// Message full-text search backed by the native `falcon/search` channel.
+///
+/// The index is kept incrementally on the native side and encrypted at rest;
+/// queries return ranked message ids in a compact binary reply instead of
+/// scanning the message table with LIKE.
+class MessageSearchService {
+  static const BasicMessageChannel<ByteData> _channel =
+      BasicMessageChannel<ByteData>('falcon/search', BinaryCodec());
+
+  static const int _opOpen = 1;
+  static const int _opIndex = 2;
+  static const int _opDeleteBefore = 3;
+  static const int _opQuery = 4;
+  static const int _opClear = 5;
+  static const int _opReopen = 6;
+  static const int _opReplace = 7;
+  static const int _statusOk = 0;
+  static const int _statusNotFound = 4;
+
+  /// Open the index under a key derived from [secret]; returns the number of
+  /// indexed messages so callers can tell when a backfill is needed
+  static Future<int> open(String secret) async {
+    return _sendForValue(_openRequest(_opOpen, secret));
+  }
+
+  /// Like [open], but only if an index was built before; returns null
+  /// instead of creating an empty one
+  static Future<int?> reopen(String secret) async {
+    final reply = await _channel
+        .send(ByteData.view(_openRequest(_opReopen, secret).buffer));
+    if (reply != null && reply.getUint8(0) == _statusNotFound) {
+      return null;
+    }
+    return _value(reply);
+  }
+
+  /// Index messages (maps with `id`, `message_text` and `timestamp`).
+  /// Already indexed ids are skipped, or re-indexed from the new text with
+  /// [replace]. Returns how many were added or replaced.
+  static Future<int> indexMessages(List<Map<String, dynamic>> messages,
+      {bool replace = false}) async {
+    if (messages.isEmpty) {
+      return 0;
+    }
+
+    final encoded = <List<int>>[];
+    var size = 1 + 4;
+    for (final message in messages) {
+      final id = utf8.encode(message['id'] as String);
+      final text = utf8.encode(message['message_text'] as String? ?? '');
+      encoded..add(id)..add(text);
+      size += 2 + id.length + 8 + 4 + text.length;
+    }
+
+    final request = Uint8List(size);
+    final header = ByteData.view(request.buffer);
+    var offset = 0;
+    header.setUint8(offset++, replace ? _opReplace : _opIndex);
+    header.setUint32(offset, messages.length);
+    offset += 4;
+    for (var i = 0; i < messages.length; i++) {
+      final id = encoded[2 * i];
+      final text = encoded[2 * i + 1];
+      header.setUint16(offset, id.length);
+      offset += 2;
+      request.setRange(offset, offset + id.length, id);
+      offset += id.length;
+      header.setInt64(offset, (messages[i]['timestamp'] as num?)?.toInt() ?? 0);
+      offset += 8;
+      header.setUint32(offset, text.length);
+      offset += 4;
+      request.setRange(offset, offset + text.length, text);
+      offset += text.length;
+    }
+    return _sendForValue(request);
+  }
+
+  /// Drop indexed messages with a timestamp older than [cutoff]
+  static Future<int> deleteBefore(int cutoff) {
+    final request = Uint8List(9);
+    final header = ByteData.view(request.buffer);
+    header.setUint8(0, _opDeleteBefore);
+    header.setInt64(1, cutoff);
+    return _sendForValue(request);
+  }
+
+  /// Remove everything from the index (for logout)
+  static Future<void> clear() async {
+    await _sendForValue(Uint8List.fromList([_opClear]));
+  }
+
+  /// Ranked search; every term must match and the last one may be a prefix
+  static Future<MessageSearchPage> search(String query,
+      {int offset = 0, int limit = 50}) async {
+    if (query.trim().isEmpty) {
+      return MessageSearchPage.empty;
+    }
+
+    final text = utf8.encode(query);
+    if (text.length > 0xFFFF) {
+      return MessageSearchPage.empty;
+    }
+    final request = Uint8List(1 + 4 + 4 + 2 + text.length);
+    final header = ByteData.view(request.buffer);
+    header.setUint8(0, _opQuery);
+    header.setUint32(1, offset);
+    header.setUint32(5, limit);
+    header.setUint16(9, text.length);
+    request.setRange(11, request.length, text);
+
+    final reply = await _send(request);
+    final total = reply.getUint32(1);
+    final count = reply.getUint32(5);
+    final ids = <String>[];
+    var cursor = 9;
+    for (var i = 0; i < count; i++) {
+      final length = reply.getUint16(cursor);
+      cursor += 2;
+      ids.add(
+          utf8.decode(Uint8List.sublistView(reply, cursor, cursor + length)));
+      cursor += length;
+    }
+    return MessageSearchPage(total, ids);
+  }
+
+  static Uint8List _openRequest(int op, String secret) {
+    final key = sha256.convert(utf8.encode('falcon_search_$secret')).bytes;
+    final request = Uint8List(2 + key.length);
+    request[0] = op;
+    request[1] = key.length;
+    request.setRange(2, request.length, key);
+    return request;
+  }
+
+  static Future<int> _sendForValue(Uint8List request) async {
+    return _value(await _channel.send(ByteData.view(request.buffer)));
+  }
+
+  static int _value(ByteData? reply) {
+    return _checked(reply).getUint32(1);
+  }
+
+  static Future<ByteData> _send(Uint8List request) async {
+    return _checked(await _channel.send(ByteData.view(request.buffer)));
+  }
+
+  static ByteData _checked(ByteData? reply) {
+    if (reply == null || reply.getUint8(0) != _statusOk) {
+      throw PlatformException(
+          code: 'SEARCH_FAILED',
+          message: 'Native search rejected the request (status '
+              '${reply?.getUint8(0)})');
+    }
+    return reply;
+  }
+}
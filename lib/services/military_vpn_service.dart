@@ -3,11 +3,17 @@ import 'dart:convert';
 import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 import 'package:crypto/crypto.dart';
+import 'vpn_service.dart';
 
 /// Military-grade VPN security service with comprehensive logging and monitoring
 class MilitaryVpnService extends ChangeNotifier {
   static const MethodChannel _channel = MethodChannel('falcon/vpn_manager');
 
+  StreamSubscription<dynamic>? _stateSubscription;
+  // Set once native reports a live tunnel; earlier disconnected snapshots
+  // describe no tunnel at all rather than a drop
+  bool _nativeTunnelSeen = false;
+
   // VPN Connection State
   bool _isConnected = false;
   bool _isConnecting = false;
@@ -276,6 +282,8 @@ class MilitaryVpnService extends ChangeNotifier {
       _isConnected = false;
       _isConnecting = false;
       _connectionStatus = 'Disconnected';
+      await _stateSubscription?.cancel();
+      _stateSubscription = null;
 
       final duration = connectionDuration;
       _connectionStartTime = null;
@@ -294,24 +302,49 @@ class MilitaryVpnService extends ChangeNotifier {
 
   /// Start real-time connection monitoring
   void _startConnectionMonitoring() {
-    // Simulate real-time traffic monitoring
-    Timer.periodic(const Duration(seconds: 5), (timer) {
-      if (!_isConnected) {
-        timer.cancel();
-        return;
-      }
+    // The native service pushes state changes and traffic counters; no polling.
+    // Shares VpnService's stream, since the state channel has one Dart handler
+    _stateSubscription?.cancel();
+    _nativeTunnelSeen = false;
+    _stateSubscription = VpnService.nativeStates.listen(
+      _onNativeState,
+      onError: (e) =>
+          _addSecurityLog('VPN_MONITOR_ERROR', 'VPN state stream error: $e'),
+    );
+  }
 
-      // Update traffic metrics (simulated)
-      _packetsTransmitted += 15 + (DateTime.now().millisecond % 10);
-      _packetsReceived += 12 + (DateTime.now().millisecond % 8);
-      _dataEncrypted += 1024 + (DateTime.now().millisecond * 10);
-      _dataDecrypted += 896 + (DateTime.now().millisecond * 8);
+  void _onNativeState(dynamic event) {
+    if (event is! Map || !_isConnected) return;
+    final status = event['status'] as String? ?? 'disconnected';
 
-      // Check for anomalies
-      _performTrafficAnalysis();
+    if (status == 'connected') {
+      _nativeTunnelSeen = true;
+    } else if (!_nativeTunnelSeen) {
+      return;
+    }
 
+    if (status == 'disconnected' || status == 'failed') {
+      _isConnected = false;
+      _connectionStatus =
+          status == 'failed' ? 'Connection failed' : 'Disconnected';
+      _connectionStartTime = null;
+      _stateSubscription?.cancel();
+      _stateSubscription = null;
+      _addConnectionLog('VPN_DISCONNECTED',
+          'VPN tunnel reported $status: ${event['message'] ?? 'no reason'}');
       notifyListeners();
-    });
+      return;
+    }
+
+    _packetsTransmitted = (event['packetsSent'] as num?)?.toInt() ?? 0;
+    _packetsReceived = (event['packetsReceived'] as num?)?.toInt() ?? 0;
+    _dataEncrypted = (event['bytesSent'] as num?)?.toInt() ?? 0;
+    _dataDecrypted = (event['bytesReceived'] as num?)?.toInt() ?? 0;
+
+    // Check for anomalies
+    _performTrafficAnalysis();
+
+    notifyListeners();
   }
 
   /// Perform real-time traffic analysis for threat detection
@@ -433,6 +466,12 @@ class MilitaryVpnService extends ChangeNotifier {
     return '${(bytes / (1024 * 1024 * 1024)).toStringAsFixed(1)} GB';
   }
 
+  @override
+  void dispose() {
+    _stateSubscription?.cancel();
+    super.dispose();
+  }
+
   /// Check if VPN permission is granted
   Future<bool> isVpnPermissionGranted() async {
     try {
@@ -12,6 +12,42 @@ class ScreenshotProtectionService extends ChangeNotifier {
   bool get isScreenRecordingProtectionEnabled =>
       _isScreenRecordingProtectionEnabled;
 
+  /// Hold protection for one screen; holds nest and are counted natively, so
+  /// the window stays secure until every holder released it. Completes once
+  /// the window flag is applied and returns whether the window is secure.
+  Future<bool> acquire(String token) async {
+    try {
+      return await _channel.invokeMethod<bool>('acquire', {'token': token}) ??
+          false;
+    } catch (e) {
+      debugPrint('Error acquiring screenshot protection: $e');
+      return false;
+    }
+  }
+
+  /// Release a hold taken with [acquire]
+  Future<bool> release(String token) async {
+    try {
+      return await _channel.invokeMethod<bool>('release', {'token': token}) ??
+          false;
+    } catch (e) {
+      debugPrint('Error releasing screenshot protection: $e');
+      return false;
+    }
+  }
+
+  /// Window flag counters (secure, holders, requests, windowUpdates,
+  /// coalescedRequests, redundantFrames)
+  Future<Map<String, dynamic>> getProtectionStats() async {
+    try {
+      final stats = await _channel.invokeMethod<Map>('getProtectionStats');
+      return stats == null ? {} : Map<String, dynamic>.from(stats);
+    } catch (e) {
+      debugPrint('Error reading screenshot protection stats: $e');
+      return {};
+    }
+  }
+
   /// Enable screenshot protection
   Future<void> enableScreenshotProtection() async {
     try {
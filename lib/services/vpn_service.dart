@@ -1,20 +1,114 @@
+import 'dart:async';
+import 'dart:typed_data';
 import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 import 'network_config_service.dart';
 
 class VpnService extends ChangeNotifier {
   static const MethodChannel _channel = MethodChannel('falcon/vpn_manager');
+  static const EventChannel _stateChannel =
+      EventChannel('falcon/vpn_manager/state');
+
+  static Stream<Map<dynamic, dynamic>>? _nativeStates;
+
+  StreamSubscription<dynamic>? _stateSubscription;
 
   bool _isConnected = false;
   bool _isConnecting = false;
   String _connectionStatus = 'Disconnected';
   String? _vpnError;
   DateTime? _lastConnectionAttempt;
+  Map<String, int> _connectTimings = const {};
+  Map<String, dynamic> _compressionStats = const {};
+  Map<String, dynamic> _pacingStats = const {};
+  Map<String, dynamic> _endpointPaths = const {};
 
   bool get isConnected => _isConnected;
   bool get isConnecting => _isConnecting;
   String get connectionStatus => _connectionStatus;
 
+  /// Per-phase connect latency in ms (initMs, establishMs, socketMs,
+  /// firstHandshakeMs, firstDataMs); -1 for phases not reached yet
+  Map<String, int> get connectTimings => _connectTimings;
+
+  /// Tunnel compression totals (negotiated, packetsCompressed, packetsSkipped,
+  /// bytesIn, bytesSaved, cpuMicros)
+  Map<String, dynamic> get compressionStats => _compressionStats;
+
+  /// Egress pacer path model (enabled, bandwidth in bytes/s, minRttMicros,
+  /// pacingRate, deferredPackets)
+  Map<String, dynamic> get pacingStats => _pacingStats;
+
+  /// Outer path per address family (`ipv4`, `ipv6`, each with address,
+  /// state, connectMs and rttMicros) and the `selected` family
+  Map<String, dynamic> get endpointPaths => _endpointPaths;
+
+  VpnService() {
+    _listenToNativeState();
+  }
+
+  /// State snapshots pushed by the native VPN service.
+  ///
+  /// An EventChannel has a single Dart-side handler, so every listener in the
+  /// app shares this stream; cancelling a subscription leaves the native
+  /// stream running for the others.
+  static Stream<Map<dynamic, dynamic>> get nativeStates {
+    return _nativeStates ??= _stateChannel
+        .receiveBroadcastStream()
+        .where((event) => event is Map)
+        .cast<Map<dynamic, dynamic>>()
+        .asBroadcastStream();
+  }
+
+  /// Subscribe to state changes pushed by the native VPN service
+  void _listenToNativeState() {
+    _stateSubscription = nativeStates.listen(
+      _onNativeState,
+      onError: (e) => debugPrint('VPN state stream error: $e'),
+    );
+  }
+
+  void _onNativeState(dynamic event) {
+    if (event is! Map) return;
+    final status = event['status'] as String? ?? 'disconnected';
+
+    _isConnected = status == 'connected';
+    _isConnecting = status == 'connecting';
+    final timings = event['timings'];
+    if (timings is Map) {
+      _connectTimings = timings.map(
+          (key, value) => MapEntry(key as String, (value as num).toInt()));
+    }
+    final compression = event['compression'];
+    if (compression is Map) {
+      _compressionStats = Map<String, dynamic>.from(compression);
+    }
+    final pacing = event['pacing'];
+    if (pacing is Map) {
+      _pacingStats = Map<String, dynamic>.from(pacing);
+    }
+    final paths = event['paths'];
+    if (paths is Map) {
+      _endpointPaths = Map<String, dynamic>.from(paths);
+    }
+    switch (status) {
+      case 'connected':
+        _connectionStatus = 'Connected';
+        break;
+      case 'connecting':
+        _connectionStatus = 'Connecting...';
+        break;
+      case 'failed':
+        _connectionStatus = 'Connection failed';
+        _vpnError = event['message'] as String?;
+        break;
+      default:
+        _connectionStatus = 'Disconnected';
+    }
+    NetworkConfigService.setVpnStatus(_isConnected);
+    notifyListeners();
+  }
+
   /// Reset VPN state to initial values
   void resetVpnState() {
     _isConnected = false;
@@ -60,8 +154,12 @@ class VpnService extends ChangeNotifier {
     }
   }
 
-  /// Start VPN connection with retry mechanism
-  Future<void> startVpn({int retryCount = 0}) async {
+  /// Start VPN connection.
+  ///
+  /// Completes once the tunnel passes traffic. Native reports the outcome of
+  /// the attempt (handshake timeout, stop while connecting), so failures are
+  /// surfaced as-is rather than retried.
+  Future<void> startVpn() async {
     try {
       _isConnecting = true;
       _connectionStatus = 'Connecting...';
@@ -83,17 +181,10 @@ class VpnService extends ChangeNotifier {
       _isConnected = false;
       _isConnecting = false;
       _connectionStatus = 'Connection failed';
+      _vpnError = e.message;
       debugPrint('Platform error starting VPN: $e');
       // Notify network config service about VPN status change
       NetworkConfigService.setVpnStatus(false);
-
-      // Retry mechanism for platform errors
-      if (retryCount < 2) {
-        debugPrint('Retrying VPN start (attempt ${retryCount + 1})');
-        await Future.delayed(Duration(seconds: 2 * (retryCount + 1)));
-        return await startVpn(retryCount: retryCount + 1);
-      }
-
       rethrow;
     } on MissingPluginException catch (e) {
       _isConnected = false;
@@ -110,21 +201,59 @@ class VpnService extends ChangeNotifier {
       debugPrint('Error starting VPN: $e');
       // Notify network config service about VPN status change
       NetworkConfigService.setVpnStatus(false);
-
-      // Retry mechanism for other errors
-      if (retryCount < 1) {
-        debugPrint(
-            'Retrying VPN start due to unknown error (attempt ${retryCount + 1})');
-        await Future.delayed(Duration(seconds: 2 * (retryCount + 1)));
-        return await startVpn(retryCount: retryCount + 1);
-      }
-
       rethrow;
     } finally {
       notifyListeners();
     }
   }
 
+  /// Change tunnel settings without reconnecting.
+  ///
+  /// Only the given settings change. Endpoint, peer key, compression and
+  /// pacing are applied in place. Address, DNS, MTU, route or excluded route
+  /// changes replace the tun interface, and the old one stays up until the
+  /// new one is established. Excluded routes bypass the VPN. [disableIpv6]
+  /// drops the IPv6 tun address.
+  /// Returns the action taken: `none`, `saved`, `dataPlane` or `rebuild`.
+  Future<String> reconfigure({
+    String? endpointHost,
+    int? endpointPort,
+    Uint8List? peerPublicKey,
+    List<String>? excludedRoutes,
+    bool? compression,
+    bool? pacing,
+    String? address,
+    int? prefixLength,
+    String? address6,
+    int? prefixLength6,
+    bool disableIpv6 = false,
+    List<String>? dnsServers,
+    int? mtu,
+    List<String>? routes,
+  }) async {
+    final result = await _channel.invokeMethod('reconfigure', {
+      if (endpointHost != null) 'endpointHost': endpointHost,
+      if (endpointPort != null) 'endpointPort': endpointPort,
+      if (peerPublicKey != null) 'peerPublicKey': peerPublicKey,
+      if (excludedRoutes != null) 'excludedRoutes': excludedRoutes,
+      if (compression != null) 'compression': compression,
+      if (pacing != null) 'pacing': pacing,
+      if (address != null) 'address': address,
+      if (prefixLength != null) 'prefixLength': prefixLength,
+      if (disableIpv6)
+        'address6': null
+      else if (address6 != null)
+        'address6': address6,
+      if (prefixLength6 != null) 'prefixLength6': prefixLength6,
+      if (dnsServers != null) 'dnsServers': dnsServers,
+      if (mtu != null) 'mtu': mtu,
+      if (routes != null) 'routes': routes,
+    });
+    final action = (result as Map)['action'] as String;
+    debugPrint('VPN reconfigured: $action');
+    return action;
+  }
+
   /// Stop VPN connection with retry mechanism
   Future<void> stopVpn({int retryCount = 0}) async {
     try {
@@ -201,7 +330,7 @@ class VpnService extends ChangeNotifier {
 
   @override
   void dispose() {
-    // Clean up any resources if needed
+    _stateSubscription?.cancel();
     super.dispose();
   }
 }
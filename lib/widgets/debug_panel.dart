@@ -6,6 +6,7 @@ import 'package:http/http.dart' as http;
 
 import '../services/vpn_service.dart';
 import '../services/network_config_service.dart';
+import '../services/screenshot_protection_service.dart';
 import '../theme/app_theme.dart';
 
 class DebugPanel extends StatefulWidget {
@@ -19,6 +20,13 @@ class _DebugPanelState extends State<DebugPanel> {
   bool _isPinging = false;
   String _pingResult = '';
   double _pingTime = 0.0;
+  Map<String, dynamic> _protectionStats = const {};
+
+  @override
+  void initState() {
+    super.initState();
+    _refreshProtectionStats();
+  }
 
   @override
   Widget build(BuildContext context) {
@@ -57,6 +65,11 @@ class _DebugPanelState extends State<DebugPanel> {
 
           // Backend Ping
           _buildPingSection(),
+
+          const SizedBox(height: 16),
+
+          // Secure window flag updates
+          _buildProtectionSection(),
         ],
       ),
     );
@@ -231,6 +244,53 @@ class _DebugPanelState extends State<DebugPanel> {
     );
   }
 
+  Widget _buildProtectionSection() {
+    return Column(
+      crossAxisAlignment: CrossAxisAlignment.start,
+      children: [
+        Row(
+          children: [
+            const Text(
+              'Screen Protection',
+              style: TextStyle(
+                fontSize: 16,
+                fontWeight: FontWeight.w600,
+              ),
+            ),
+            const Spacer(),
+            TextButton(
+              onPressed: _refreshProtectionStats,
+              child: const Text('Refresh'),
+            ),
+          ],
+        ),
+        _buildConfigRow(
+            'Secure', (_protectionStats['secure'] ?? '-').toString()),
+        _buildConfigRow(
+            'Holders', (_protectionStats['holders'] ?? '-').toString()),
+        _buildConfigRow(
+            'Requests', (_protectionStats['requests'] ?? '-').toString()),
+        _buildConfigRow('Window Updates',
+            (_protectionStats['windowUpdates'] ?? '-').toString()),
+        _buildConfigRow('Coalesced',
+            (_protectionStats['coalescedRequests'] ?? '-').toString()),
+        _buildConfigRow('Redundant',
+            (_protectionStats['redundantFrames'] ?? '-').toString()),
+      ],
+    );
+  }
+
+  Future<void> _refreshProtectionStats() async {
+    final stats = await Provider.of<ScreenshotProtectionService>(context,
+            listen: false)
+        .getProtectionStats();
+    if (mounted) {
+      setState(() {
+        _protectionStats = stats;
+      });
+    }
+  }
+
   Future<void> _pingBackend() async {
     setState(() {
       _isPinging = true;